@@ -3,6 +3,7 @@ package org.apache.cordova.firebase;
 import android.app.Activity;
 import android.app.NotificationManager;
 import android.app.NotificationChannel;
+import android.app.NotificationChannelGroup;
 import android.content.ContentResolver;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -17,6 +18,7 @@ import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
@@ -26,8 +28,6 @@ import android.util.Log;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.FirebaseApp;
-import com.google.firebase.installations.FirebaseInstallations;
-import com.google.firebase.installations.InstallationTokenResult;
 import com.google.firebase.messaging.FirebaseMessaging;
 
 import org.apache.cordova.CallbackContext;
@@ -40,8 +40,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.content.Context.MODE_PRIVATE;
 
@@ -51,20 +54,31 @@ public class FirebasePlugin extends CordovaPlugin {
     private static CordovaInterface cordovaInterface = null;
     protected static Context applicationContext = null;
     private static Activity cordovaActivity = null;
-    private static boolean pluginInitialized = false;
-    private static boolean onPageFinished = false;
-    private static ArrayList<String> pendingGlobalJS = null;
+    private static volatile boolean pluginInitialized = false;
+    private static volatile boolean onPageFinished = false;
+    private static volatile boolean stagedInit = false;
+    private FirebasePluginJsDispatcher jsDispatcher;
+    private static final AtomicBoolean initializationScheduled = new AtomicBoolean(false);
+    private static final Object pendingNotificationsLock = new Object();
+    // Serializes initialize() on a lock of its own, so lifecycle callbacks on the UI thread never wait for it
+    private static final Object initializationLock = new Object();
+    // Actions received before initialize() has completed, run once it has; also guards the transition to initialized
+    private static final ArrayList<DeferredAction> deferredActions = new ArrayList<DeferredAction>();
     protected static final String TAG = "FirebasePlugin";
     protected static final String JS_GLOBAL_NAMESPACE = "FirebasePlugin.";
     protected static final String SETTINGS_NAME = "settings";
 
     protected static final String POST_NOTIFICATIONS = "POST_NOTIFICATIONS";
     protected static final int POST_NOTIFICATIONS_PERMISSION_REQUEST_ID = 1;
+    protected static final int DEFAULT_MAX_BATCH_SIZE = 50;
+    protected static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
 
     private static boolean inBackground = true;
     private static boolean immediateMessagePayloadDelivery = false;
-    private static ArrayList<Bundle> notificationStack = null;
     private static CallbackContext notificationCallbackContext;
+    private static CallbackContext notificationBatchCallbackContext;
+    private static int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private static int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
     private static CallbackContext tokenRefreshCallbackContext;
     private static CallbackContext postNotificationPermissionRequestCallbackContext;
 
@@ -74,40 +88,70 @@ public class FirebasePlugin extends CordovaPlugin {
 
     @Override
     protected void pluginInitialize() {
+        FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_PLUGIN_INITIALIZE);
         instance = this;
+        jsDispatcher = new FirebasePluginJsDispatcher(webView);
         cordovaActivity = this.cordova.getActivity();
         applicationContext = cordovaActivity.getApplicationContext();
         final Bundle extras = cordovaActivity.getIntent().getExtras();
         FirebasePlugin.cordovaInterface = this.cordova;
-        this.cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
             public void run() {
                 try {
                     Log.d(TAG, "Starting Firebase plugin");
 
-                    immediateMessagePayloadDelivery = getPluginVariableFromConfigXml("FIREBASE_MESSAGING_IMMEDIATE_PAYLOAD_DELIVERY").equals("true");
-
-                    FirebaseApp.initializeApp(applicationContext);
-
                     if (extras != null && extras.size() > 1) {
-                        if (FirebasePlugin.notificationStack == null) {
-                            FirebasePlugin.notificationStack = new ArrayList<Bundle>();
-                        }
                         if (extras.containsKey("google.message_id")) {
                             extras.putString("messageType", "notification");
                             extras.putString("tap", "background");
-                            notificationStack.add(extras);
+                            FirebasePluginMessageQueue.getInstance(applicationContext).offer(extras);
                             Log.d(TAG, "Notification message found on init: " + extras.toString());
                         }
                     }
-                    defaultChannelId = getStringResource("default_notification_channel_id");
-                    defaultChannelName = getStringResource("default_notification_channel_name");
-                    createDefaultChannel();
-                    pluginInitialized = true;
-                    // If the webview has already reported page finished, flush any pending global JS
-                    if (onPageFinished) {
-                        executePendingGlobalJavascript();
+                    FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_LAUNCH_NOTIFICATION_CAPTURED);
+
+                    stagedInit = getPluginVariableFromConfigXml("FIREBASE_STAGED_INIT").equals("true");
+                    FirebasePluginStartupTrace.setMode(stagedInit ? "staged" : "eager");
+                    if (!stagedInit) {
+                        FirebasePluginStartupTrace.setTrigger("pluginInitialize");
+                        initialize();
+                    } else if (onPageFinished) {
+                        scheduleInitialization("pageFinished");
+                    } else {
+                        // An action may have been deferred before the mode was known
+                        String firstAction = getFirstDeferredAction();
+                        if (firstAction != null) {
+                            scheduleInitialization("action:" + firstAction);
+                        }
                     }
+                } catch (Exception e) {
+                    handleExceptionWithoutContext(e);
+                }
+            }
+        });
+    }
 
+    /**
+     * Starts the initialization deferred by staged init, if it hasn't been already.
+     *
+     * @param trigger what needs the plugin to be initialized, for the startup trace
+     */
+    private void scheduleInitialization(final String trigger) {
+        if (pluginInitialized || !initializationScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        FirebasePluginStartupTrace.setTrigger(trigger);
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
+            public void run() {
+                try {
+                    initialize();
+                    // Warms the token cache so the app's first getToken is answered without waiting on FCM
+                    FirebasePluginTokenCache.getToken(applicationContext).addOnCompleteListener(new OnCompleteListener<String>() {
+                        @Override
+                        public void onComplete(@NonNull Task<String> task) {
+                            FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_TOKEN_PREFETCHED);
+                        }
+                    });
                 } catch (Exception e) {
                     handleExceptionWithoutContext(e);
                 }
@@ -115,6 +159,33 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    private void initialize() {
+        synchronized (initializationLock) {
+            if (pluginInitialized) {
+                return;
+            }
+            immediateMessagePayloadDelivery = getPluginVariableFromConfigXml("FIREBASE_MESSAGING_IMMEDIATE_PAYLOAD_DELIVERY").equals("true");
+            FirebasePluginMessagingMetrics.setEnabled(getPluginVariableFromConfigXml("FIREBASE_MESSAGING_METRICS_ENABLED").equals("true"));
+
+            FirebaseApp.initializeApp(applicationContext);
+            FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_FIREBASE_INITIALIZED);
+
+            defaultChannelId = getStringResource("default_notification_channel_id");
+            defaultChannelName = getStringResource("default_notification_channel_name");
+            createDefaultChannel();
+            // Recovers and compacts messages journaled by a previous process, ready to be flushed to JS
+            FirebasePluginMessageJournal.getInstance(applicationContext);
+            // Resumes topic and registration operations left pending by a previous process
+            FirebasePluginOperationQueue.getInstance(applicationContext);
+            runDeferredActions();
+            FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_INITIALIZED);
+            // If the webview has already reported page finished, flush any pending global JS
+            if (onPageFinished) {
+                executePendingGlobalJavascript();
+            }
+        }
+    }
+
     @Override
     public Object onMessage(String id, Object data){
         if (id == null) {
@@ -123,14 +194,66 @@ public class FirebasePlugin extends CordovaPlugin {
         if("onPageFinished".equals(id)){
             Log.d(TAG, "Page ready init javascript");
             onPageFinished = true;
+            FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_PAGE_FINISHED);
             executePendingGlobalJavascript();
+            if (stagedInit) {
+                scheduleInitialization("pageFinished");
+            }
             return null;
         }
         return super.onMessage(id, data);
     }
 
+    /**
+     * Runs the actions deferred until initialization, in the order they were received, then marks the plugin initialized.
+     * Actions received while these run are deferred too, so they can't overtake them.
+     */
+    private void runDeferredActions() {
+        while (true) {
+            ArrayList<DeferredAction> actions;
+            synchronized (deferredActions) {
+                if (deferredActions.isEmpty()) {
+                    pluginInitialized = true;
+                    return;
+                }
+                actions = new ArrayList<DeferredAction>(deferredActions);
+                deferredActions.clear();
+            }
+            Log.d(TAG, "Running " + actions.size() + " actions deferred until initialization");
+            for (DeferredAction deferred : actions) {
+                dispatch(deferred.action, deferred.args, deferred.callbackContext);
+            }
+        }
+    }
+
+    private static String getFirstDeferredAction() {
+        synchronized (deferredActions) {
+            return deferredActions.isEmpty() ? null : deferredActions.get(0).action;
+        }
+    }
+
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if (!pluginInitialized) {
+            boolean deferred = false;
+            synchronized (deferredActions) {
+                if (!pluginInitialized) {
+                    // Firebase and the default channel aren't set up yet, whether initialization is staged or still running
+                    deferredActions.add(new DeferredAction(action, args, callbackContext));
+                    deferred = true;
+                }
+            }
+            if (deferred) {
+                if (stagedInit) {
+                    scheduleInitialization("action:" + action);
+                }
+                return true;
+            }
+        }
+        return dispatch(action, args, callbackContext);
+    }
+
+    private boolean dispatch(String action, JSONArray args, CallbackContext callbackContext) {
         try {
             switch (action) {
                 case "getId":
@@ -151,6 +274,12 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "unsubscribe":
                     this.unsubscribe(callbackContext, args.getString(0));
                     break;
+                case "setTopics":
+                    this.setTopics(callbackContext, args.getJSONArray(0));
+                    break;
+                case "listTopics":
+                    this.listTopics(callbackContext);
+                    break;
                 case "isAutoInitEnabled":
                     this.isAutoInitEnabled(callbackContext);
                     break;
@@ -163,6 +292,9 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "onMessageReceived":
                     this.onMessageReceived(callbackContext);
                     break;
+                case "onMessagesReceivedBatch":
+                    this.onMessagesReceivedBatch(args, callbackContext);
+                    break;
                 case "onTokenRefresh":
                     this.onTokenRefresh(callbackContext);
                     break;
@@ -172,6 +304,9 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "createChannel":
                     this.createChannel(callbackContext, args.getJSONObject(0));
                     break;
+                case "createChannels":
+                    this.createChannels(callbackContext, args.getJSONArray(0), args.optJSONArray(1));
+                    break;
                 case "deleteChannel":
                     this.deleteChannel(callbackContext, args.getString(0));
                     break;
@@ -190,6 +325,12 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "getInstallationToken":
                     this.getInstallationToken(callbackContext);
                     break;
+                case "getMessagingMetrics":
+                    this.getMessagingMetrics(callbackContext);
+                    break;
+                case "getStartupTrace":
+                    this.getStartupTrace(callbackContext);
+                    break;
                 // iOS-only stubs
                 case "grantCriticalPermission":
                 case "hasCriticalPermission":
@@ -219,7 +360,7 @@ public class FirebasePlugin extends CordovaPlugin {
     @Override
     public void onResume(boolean multitasking) {
         FirebasePlugin.inBackground = false;
-        if (FirebasePlugin.notificationCallbackContext != null) {
+        if (FirebasePlugin.hasNotificationsCallback()) {
             sendPendingNotifications();
         }
     }
@@ -227,11 +368,20 @@ public class FirebasePlugin extends CordovaPlugin {
     @Override
     public void onReset() {
         FirebasePlugin.notificationCallbackContext = null;
+        FirebasePlugin.notificationBatchCallbackContext = null;
         FirebasePlugin.tokenRefreshCallbackContext = null;
     }
 
     @Override
     public void onDestroy() {
+        FirebasePluginExecutor.shutdown();
+        // The process may outlive the activity, in which case the next instance initializes again
+        synchronized (deferredActions) {
+            pluginInitialized = false;
+            deferredActions.clear();
+        }
+        initializationScheduled.set(false);
+        jsDispatcher.cancel();
         instance = null;
         cordovaActivity = null;
         cordovaInterface = null;
@@ -248,9 +398,7 @@ public class FirebasePlugin extends CordovaPlugin {
      */
     private String getStringResource(String name) {
         return applicationContext.getString(
-                applicationContext.getResources().getIdentifier(
-                        name, "string", applicationContext.getPackageName()
-                )
+                FirebasePluginResourceCache.getIdentifier(applicationContext, name, "string")
         );
     }
 
@@ -259,30 +407,94 @@ public class FirebasePlugin extends CordovaPlugin {
         sendPendingNotifications();
     }
 
-    private synchronized void sendPendingNotifications() {
-        if (FirebasePlugin.notificationStack != null) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                public void run() {
-                    try {
-                        for (Bundle bundle : FirebasePlugin.notificationStack) {
-                            FirebasePlugin.sendMessage(bundle, applicationContext);
+    private void onMessagesReceivedBatch(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        if (options != null) {
+            maxBatchSize = Math.max(1, options.optInt("maxBatchSize", DEFAULT_MAX_BATCH_SIZE));
+            maxBatchBytes = Math.max(1, options.optInt("maxBatchBytes", DEFAULT_MAX_BATCH_BYTES));
+        }
+        FirebasePlugin.notificationBatchCallbackContext = callbackContext;
+        sendPendingNotifications();
+    }
+
+    private void sendPendingNotifications() {
+        final Context context = applicationContext;
+        // Called on the UI thread (e.g. from onResume), so the journal, whose first use recovers it from storage, is only touched on the executor
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(context);
+                    FirebasePluginMessageQueue queue = FirebasePluginMessageQueue.getInstance(context);
+                    if (!queue.isEmpty() || (journal != null && journal.getRecoveredCount() > 0)) {
+                        deliverPendingNotifications(journal, queue);
+                    }
+                } catch (Exception e) {
+                    handleExceptionWithoutContext(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delivers the replayed and queued messages. Flushes requested in quick succession may run on different
+     * executor threads at once, so they are serialized to keep the message queue to a single consumer.
+     */
+    private void deliverPendingNotifications(final FirebasePluginMessageJournal journal, final FirebasePluginMessageQueue queue) {
+        synchronized (pendingNotificationsLock) {
+            final MessageBatch batch = notificationBatchCallbackContext != null
+                    ? new MessageBatch(notificationBatchCallbackContext, maxBatchSize, maxBatchBytes) : null;
+            if (journal != null) {
+                // Messages queued by a previous process that was killed before they could be delivered are queued again,
+                // so the queue's capacity, overflow and collapse key rules apply to them, and are then drained below
+                synchronized (journal) {
+                    journal.replayRecovered(new FirebasePluginMessageJournal.Visitor() {
+                        @Override
+                        public void onMessage(Bundle bundle) {
+                            if (queue.offer(bundle)) {
+                                journal.append(bundle);
+                            }
+                        }
+                    });
+                }
+            }
+            // Only drain what is queued now: a message may be re-queued if the app goes back to the background mid-flush
+            ArrayList<Bundle> delivered = new ArrayList<Bundle>();
+            for (int pending = queue.size(); pending > 0; pending--) {
+                Bundle bundle = queue.poll();
+                if (bundle == null) {
+                    break;
+                }
+                if (sendPendingMessage(bundle, batch)) {
+                    delivered.add(bundle);
+                }
+            }
+            if (batch != null) {
+                batch.flush();
+            }
+            if (journal != null) {
+                // Producers journal and queue under the journal lock, so holding it keeps a message queued
+                // concurrently from being discarded along with those already delivered
+                synchronized (journal) {
+                    if (queue.isEmpty()) {
+                        journal.clearLive();
+                    } else {
+                        // Some messages are still queued, so the journal is kept; those delivered mustn't be replayed from it
+                        for (Bundle bundle : delivered) {
+                            journal.tombstone(bundle);
                         }
-                        FirebasePlugin.notificationStack.clear();
-                    } catch (Exception e) {
-                        handleExceptionWithoutContext(e);
                     }
                 }
-            });
+            }
         }
     }
 
     private void onTokenRefresh(final CallbackContext callbackContext) {
         FirebasePlugin.tokenRefreshCallbackContext = callbackContext;
 
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
             public void run() {
                 try {
-                    FirebaseMessaging.getInstance().getToken().addOnCompleteListener(new OnCompleteListener<String>() {
+                    FirebasePluginTokenCache.getToken(applicationContext).addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
                         public void onComplete(@NonNull Task<String> task) {
                             try {
@@ -308,15 +520,68 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
-    public static void sendMessage(Bundle bundle, Context context) {
-        if (!FirebasePlugin.hasNotificationsCallback() || (inBackground && !immediateMessagePayloadDelivery)) {
-            String packageName = context.getPackageName();
-            if (FirebasePlugin.notificationStack == null) {
-                FirebasePlugin.notificationStack = new ArrayList<Bundle>();
+    /**
+     * @return false if the message was queued again for later delivery
+     */
+    private boolean sendPendingMessage(Bundle bundle, MessageBatch batch) {
+        if (batch != null && canDeliverMessages()) {
+            batch.add(bundle);
+            return true;
+        }
+        return FirebasePlugin.sendMessage(bundle, applicationContext);
+    }
+
+    /**
+     * Messages sent from the UI thread (e.g. a notification tap) are handed to the executor, as queuing them
+     * touches the journal's storage.
+     *
+     * @return false if the message was queued or handed to the executor for later delivery
+     */
+    public static boolean sendMessage(final Bundle bundle, final Context context) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
+                public void run() {
+                    try {
+                        sendMessage(bundle, context);
+                    } catch (Exception e) {
+                        handleExceptionWithoutContext(e);
+                    }
+                }
+            });
+            return false;
+        }
+        long sendSpan = FirebasePluginMessagingMetrics.start();
+        try {
+            return doSendMessage(bundle, context);
+        } finally {
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_PLUGIN_SEND, sendSpan);
+        }
+    }
+
+    private static boolean doSendMessage(Bundle bundle, Context context) {
+        if (!canDeliverMessages()) {
+            FirebasePluginMessageQueue queue = FirebasePluginMessageQueue.getInstance(context);
+            FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(context);
+            if (journal != null && bundle != null) {
+                // Queued and journaled under the journal lock, so a tombstone for it (e.g. because it's superseded
+                // by another producer or delivered by a flush) can't be written before the message itself
+                synchronized (journal) {
+                    if (queue.offer(bundle)) {
+                        journal.append(bundle);
+                    }
+                }
+            } else {
+                queue.offer(bundle);
             }
-            notificationStack.add(bundle);
+            return false;
+        }
 
-            return;
+        final CallbackContext batchCallbackContext = FirebasePlugin.notificationBatchCallbackContext;
+        if (bundle != null && batchCallbackContext != null) {
+            MessageBatch batch = new MessageBatch(batchCallbackContext, maxBatchSize, maxBatchBytes);
+            batch.add(bundle);
+            batch.flush();
+            return true;
         }
 
         final CallbackContext callbackContext = FirebasePlugin.notificationCallbackContext;
@@ -326,18 +591,78 @@ public class FirebasePlugin extends CordovaPlugin {
             if (wasHandled) {
                 Log.d(TAG, "Message bundle was handled by a registered receiver");
             } else if (callbackContext != null) {
-                JSONObject json = new JSONObject();
-                Set<String> keys = bundle.keySet();
-                for (String key : keys) {
-                    try {
-                        json.put(key, bundle.get(key));
-                    } catch (JSONException e) {
-                        handleExceptionWithContext(e, callbackContext);
-                        return;
-                    }
-                }
-                FirebasePlugin.instance.sendPluginResultAndKeepCallback(json, callbackContext);
+                long serializeSpan = FirebasePluginMessagingMetrics.start();
+                String json = FirebasePluginJsonWriter.toJson(bundle);
+                FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_SERIALIZE, serializeSpan);
+                long resultSpan = FirebasePluginMessagingMetrics.start();
+                FirebasePlugin.instance.sendJsonResultAndKeepCallback(json, callbackContext);
+                FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_PLUGIN_RESULT, resultSpan);
+            }
+        }
+        return true;
+    }
+
+    private static boolean canDeliverMessages() {
+        return FirebasePlugin.hasNotificationsCallback() && (!inBackground || immediateMessagePayloadDelivery);
+    }
+
+    private static class DeferredAction {
+        final String action;
+        final JSONArray args;
+        final CallbackContext callbackContext;
+
+        DeferredAction(String action, JSONArray args, CallbackContext callbackContext) {
+            this.action = action;
+            this.args = args;
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    /**
+     * Accumulates serialized messages into a JSON array, sending it to the batch callback once it reaches
+     * the maximum message count or serialized size.
+     */
+    private static class MessageBatch {
+        private final CallbackContext callbackContext;
+        private final int maxSize;
+        private final int maxBytes;
+        private final StringBuilder messages = new StringBuilder("[");
+        private int count = 0;
+
+        MessageBatch(CallbackContext callbackContext, int maxSize, int maxBytes) {
+            this.callbackContext = callbackContext;
+            this.maxSize = maxSize;
+            this.maxBytes = maxBytes;
+        }
+
+        void add(Bundle bundle) {
+            if (FirebasePluginMessageReceiverManager.sendMessage(bundle)) {
+                Log.d(TAG, "Message bundle was handled by a registered receiver");
+                return;
+            }
+            long serializeSpan = FirebasePluginMessagingMetrics.start();
+            String json = FirebasePluginJsonWriter.toJson(bundle);
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_SERIALIZE, serializeSpan);
+
+            if (count > 0 && (count >= maxSize || messages.length() + json.length() + 2 > maxBytes)) {
+                flush();
             }
+            if (count > 0) {
+                messages.append(',');
+            }
+            messages.append(json);
+            count++;
+        }
+
+        void flush() {
+            if (count == 0) {
+                return;
+            }
+            long resultSpan = FirebasePluginMessagingMetrics.start();
+            FirebasePlugin.instance.sendJsonResultAndKeepCallback(messages.append(']').toString(), callbackContext);
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_PLUGIN_RESULT, resultSpan);
+            messages.setLength(1);
+            count = 0;
         }
     }
 
@@ -357,7 +682,7 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     public static boolean hasNotificationsCallback() {
-        return FirebasePlugin.notificationCallbackContext != null;
+        return FirebasePlugin.notificationCallbackContext != null || FirebasePlugin.notificationBatchCallbackContext != null;
     }
 
     @Override
@@ -378,10 +703,10 @@ public class FirebasePlugin extends CordovaPlugin {
 
 
     private void getToken(JSONArray args, final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
             public void run() {
                 try {
-                    FirebaseMessaging.getInstance().getToken().addOnCompleteListener(new OnCompleteListener<String>() {
+                    FirebasePluginTokenCache.getToken(applicationContext).addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
                         public void onComplete(@NonNull Task<String> task) {
                             try {
@@ -406,29 +731,26 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    // Cheap local read, so answered directly rather than via the executor
     private void hasPermission(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
-            public void run() {
-                try {
-                    NotificationManagerCompat notificationManagerCompat = NotificationManagerCompat.from(cordovaActivity);
-                    boolean areNotificationsEnabled = notificationManagerCompat.areNotificationsEnabled();
-
-                    boolean hasRuntimePermission = true;
-                    if (Build.VERSION.SDK_INT >= 33) { // Android 13+
-                        hasRuntimePermission = hasRuntimePermission(POST_NOTIFICATIONS);
-                    }
+        try {
+            NotificationManagerCompat notificationManagerCompat = NotificationManagerCompat.from(cordovaActivity);
+            boolean areNotificationsEnabled = notificationManagerCompat.areNotificationsEnabled();
 
-                    callbackContext.success(conformBooleanForPluginResult(areNotificationsEnabled && hasRuntimePermission));
-                } catch (Exception e) {
-                    handleExceptionWithContext(e, callbackContext);
-                }
+            boolean hasRuntimePermission = true;
+            if (Build.VERSION.SDK_INT >= 33) { // Android 13+
+                hasRuntimePermission = hasRuntimePermission(POST_NOTIFICATIONS);
             }
-        });
+
+            callbackContext.success(conformBooleanForPluginResult(areNotificationsEnabled && hasRuntimePermission));
+        } catch (Exception e) {
+            handleExceptionWithContext(e, callbackContext);
+        }
     }
 
     private void grantPermission(final CallbackContext callbackContext) {
         CordovaPlugin plugin = this;
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
                     if (Build.VERSION.SDK_INT >= 33) { // Android 13+
@@ -452,10 +774,11 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void subscribe(final CallbackContext callbackContext, final String topic) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_TOPIC, new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseMessaging.getInstance().subscribeToTopic(topic), callbackContext);
+                    FirebasePluginTopicStore.getInstance(applicationContext).setDesired(topic, true);
+                    FirebasePluginOperationQueue.getInstance(applicationContext).enqueue(FirebasePluginOperationQueue.TYPE_SUBSCRIBE, topic, getOperationCallback(callbackContext));
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -464,10 +787,11 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void unsubscribe(final CallbackContext callbackContext, final String topic) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_TOPIC, new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseMessaging.getInstance().unsubscribeFromTopic(topic), callbackContext);
+                    FirebasePluginTopicStore.getInstance(applicationContext).setDesired(topic, false);
+                    FirebasePluginOperationQueue.getInstance(applicationContext).enqueue(FirebasePluginOperationQueue.TYPE_UNSUBSCRIBE, topic, getOperationCallback(callbackContext));
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -475,11 +799,40 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
-    private void unregister(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void setTopics(final CallbackContext callbackContext, final JSONArray topics) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_TOPIC, new Runnable() {
+            public void run() {
+                try {
+                    ArrayList<String> desired = new ArrayList<String>(topics.length());
+                    for (int i = 0; i < topics.length(); i++) {
+                        desired.add(topics.getString(i));
+                    }
+                    FirebasePluginTopicStore.getInstance(applicationContext).setTopics(desired, new FirebasePluginTopicStore.Callback() {
+                        @Override
+                        public void onComplete(FirebasePluginTopicStore.Reconciliation result) {
+                            try {
+                                if (result.hasFailures()) {
+                                    callbackContext.error(result.toJson());
+                                } else {
+                                    callbackContext.success(result.toJson());
+                                }
+                            } catch (Exception e) {
+                                handleExceptionWithContext(e, callbackContext);
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void listTopics(final CallbackContext callbackContext) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_TOPIC, new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseMessaging.getInstance().deleteToken(), callbackContext);
+                    callbackContext.success(new JSONArray(FirebasePluginTopicStore.getInstance(applicationContext).getTopics()));
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -487,12 +840,11 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
-    private void isAutoInitEnabled(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void unregister(final CallbackContext callbackContext) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DELIVERY, new Runnable() {
             public void run() {
                 try {
-                    boolean isEnabled = FirebaseMessaging.getInstance().isAutoInitEnabled();
-                    callbackContext.success(conformBooleanForPluginResult(isEnabled));
+                    FirebasePluginOperationQueue.getInstance(applicationContext).enqueue(FirebasePluginOperationQueue.TYPE_UNREGISTER, null, getOperationCallback(callbackContext));
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -500,8 +852,18 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    // Cheap local read, so answered directly rather than via the executor
+    private void isAutoInitEnabled(final CallbackContext callbackContext) {
+        try {
+            boolean isEnabled = FirebaseMessaging.getInstance().isAutoInitEnabled();
+            callbackContext.success(conformBooleanForPluginResult(isEnabled));
+        } catch (Exception e) {
+            handleExceptionWithContext(e, callbackContext);
+        }
+    }
+
     private void setAutoInitEnabled(final CallbackContext callbackContext, final boolean enabled) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
                     FirebaseMessaging.getInstance().setAutoInitEnabled(enabled);
@@ -514,9 +876,11 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void clearAllNotifications(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
+                    FirebasePluginNotificationScheduler.getInstance(applicationContext).cancelAll();
+                    FirebasePluginNotificationGrouper.getInstance(applicationContext).clear();
                     NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
                     notificationManager.cancelAll();
                     callbackContext.success();
@@ -529,11 +893,11 @@ public class FirebasePlugin extends CordovaPlugin {
 
     // Notification Channels
     private void createDefaultChannel() {
-        this.createChannel(null, defaultChannelId, defaultChannelName, null, null, null, null, null, null, null, null);
+        this.createChannel(null, defaultChannelId, defaultChannelName, null, null, null, null, null, null, null, null, null);
     }
 
     private void createChannel(final CallbackContext callbackContext, final JSONObject options) {
-        String id = null, name = null, description = null, sound = null, lightColor = null;
+        String id = null, name = null, description = null, sound = null, lightColor = null, group = null;
         Integer importance = null, visibility = null, usage = null, streamType = null;
         Boolean vibration = null, light = null, badge = null;
 
@@ -574,52 +938,33 @@ public class FirebasePlugin extends CordovaPlugin {
         try {
             streamType = options.getInt("streamType");
         } catch (JSONException e) {}
+        try {
+            group = options.getString("group");
+        } catch (JSONException e) {}
 
-        this.createChannel(callbackContext, id, name, description, sound, importance, visibility, vibration, light, lightColor, badge);
+        this.createChannel(callbackContext, id, name, description, sound, importance, visibility, vibration, light, lightColor, badge, group);
     }
 
-    private void createChannel(final CallbackContext callbackContext, final String id, final String name, final String description, final String sound, final Integer importance, final Integer visibility, final Boolean vibration, final Boolean light, final String lightColor, final Boolean badge) {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void createChannel(final CallbackContext callbackContext, final String id, final String name, final String description, final String sound, final Integer importance, final Integer visibility, final Boolean vibration, final Boolean light, final String lightColor, final Boolean badge, final String group) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_CHANNEL, new Runnable() {
             public void run() {
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        int _importance = importance != null ? importance : NotificationManager.IMPORTANCE_DEFAULT;
-                        boolean _vibration = vibration != null ? vibration : true;
-                        boolean _light = light != null ? light : true;
-                        boolean _badge = badge != null ? badge : true;
-
-                        NotificationChannel channel = new NotificationChannel(id, name, _importance);
-                        channel.setDescription(description);
-                        channel.enableVibration(_vibration);
-                        channel.enableLights(_light);
-                        channel.setShowBadge(_badge);
-
-                        if (visibility != null) {
-                            channel.setLockscreenVisibility(visibility);
-                        }
-
-                        if (lightColor != null) {
-                            channel.setLightColor(android.graphics.Color.parseColor(lightColor));
+                        String fingerprint = FirebasePluginChannelFingerprints.of(id, name, description, sound, importance, visibility, vibration, light, lightColor, badge, group);
+                        NotificationChannel channel;
+                        if (FirebasePluginChannelFingerprints.isCommitted(applicationContext, id, fingerprint)) {
+                            channel = FirebasePluginChannelRegistry.get(applicationContext, id);
+                        } else {
+                            channel = buildChannel(id, name, description, sound, importance, visibility, vibration, light, lightColor, badge, group);
+                            NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
+                            notificationManager.createNotificationChannel(channel);
+                            FirebasePluginChannelRegistry.onChannelCreated(channel);
+                            FirebasePluginChannelFingerprints.onCommitted(applicationContext, id, fingerprint);
                         }
 
-                        AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                                .setUsage(AudioAttributes.USAGE_NOTIFICATION)
-                                .build();
-
-                        if (sound != null && !sound.contentEquals("default")) {
-                            Uri soundUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + applicationContext.getPackageName() + "/raw/" + sound);
-                            channel.setSound(soundUri, audioAttributes);
-                        } else if (sound == null || sound.contentEquals("default")) {
-                            Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-                            channel.setSound(defaultSoundUri, audioAttributes);
-                        }
-
-                        NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-                        notificationManager.createNotificationChannel(channel);
-
                         if (id.equals(defaultChannelId)) {
                             defaultNotificationChannel = channel;
+                            FirebasePluginStartupTrace.mark(FirebasePluginStartupTrace.STAGE_DEFAULT_CHANNEL_PROVISIONED);
                         }
                     }
 
@@ -637,13 +982,163 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    @RequiresApi(Build.VERSION_CODES.O)
+    private NotificationChannel buildChannel(String id, String name, String description, String sound, Integer importance, Integer visibility, Boolean vibration, Boolean light, String lightColor, Boolean badge, String group) {
+        int _importance = importance != null ? importance : NotificationManager.IMPORTANCE_DEFAULT;
+        boolean _vibration = vibration != null ? vibration : true;
+        boolean _light = light != null ? light : true;
+        boolean _badge = badge != null ? badge : true;
+
+        NotificationChannel channel = new NotificationChannel(id, name, _importance);
+        channel.setDescription(description);
+        channel.enableVibration(_vibration);
+        channel.enableLights(_light);
+        channel.setShowBadge(_badge);
+
+        if (visibility != null) {
+            channel.setLockscreenVisibility(visibility);
+        }
+
+        if (lightColor != null) {
+            channel.setLightColor(android.graphics.Color.parseColor(lightColor));
+        }
+
+        if (group != null) {
+            channel.setGroup(group);
+        }
+
+        AudioAttributes audioAttributes = new AudioAttributes.Builder()
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .setUsage(AudioAttributes.USAGE_NOTIFICATION)
+                .build();
+
+        if (sound != null && !sound.contentEquals("default")) {
+            Uri soundUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + applicationContext.getPackageName() + "/raw/" + sound);
+            channel.setSound(soundUri, audioAttributes);
+        } else if (sound == null || sound.contentEquals("default")) {
+            Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+            channel.setSound(defaultSoundUri, audioAttributes);
+        }
+        return channel;
+    }
+
+    /**
+     * Validates all channel and group specs, then creates the groups and channels with one binder call each.
+     * Invalid channels are reported in the results and skipped rather than failing the whole batch.
+     */
+    private void createChannels(final CallbackContext callbackContext, final JSONArray channelOptions, final JSONArray groupOptions) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_CHANNEL, new Runnable() {
+            public void run() {
+                try {
+                    JSONArray results = new JSONArray();
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                        callbackContext.success(results);
+                        return;
+                    }
+                    NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
+
+                    List<NotificationChannelGroup> groups = new ArrayList<NotificationChannelGroup>();
+                    Set<String> groupIds = new HashSet<String>();
+                    if (groupOptions != null) {
+                        for (int i = 0; i < groupOptions.length(); i++) {
+                            JSONObject options = groupOptions.getJSONObject(i);
+                            String id = options.optString("id", null);
+                            if (id == null || id.isEmpty()) {
+                                throw new IllegalArgumentException("Channel group " + i + " has no id");
+                            }
+                            NotificationChannelGroup group = new NotificationChannelGroup(id, options.optString("name", id));
+                            if (options.has("description") && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                                group.setDescription(options.getString("description"));
+                            }
+                            groups.add(group);
+                            groupIds.add(id);
+                        }
+                    }
+
+                    List<NotificationChannel> channels = new ArrayList<NotificationChannel>();
+                    List<String> fingerprints = new ArrayList<String>();
+                    boolean existingGroupsLoaded = false;
+                    for (int i = 0; i < channelOptions.length(); i++) {
+                        JSONObject options = channelOptions.getJSONObject(i);
+                        JSONObject result = new JSONObject();
+                        String id = options.optString("id", null);
+                        result.put("id", id);
+                        try {
+                            if (id == null || id.isEmpty()) {
+                                throw new IllegalArgumentException("Channel " + i + " has no id");
+                            }
+                            String group = options.optString("group", null);
+                            if (group != null && !groupIds.contains(group)) {
+                                if (!existingGroupsLoaded) {
+                                    // Only asked for if a channel refers to a group not being created in this call
+                                    for (NotificationChannelGroup existing : notificationManager.getNotificationChannelGroups()) {
+                                        groupIds.add(existing.getId());
+                                    }
+                                    existingGroupsLoaded = true;
+                                }
+                                if (!groupIds.contains(group)) {
+                                    throw new IllegalArgumentException("Channel group '" + group + "' does not exist");
+                                }
+                            }
+                            int importance = options.optInt("importance", NotificationManager.IMPORTANCE_DEFAULT);
+                            if (importance < NotificationManager.IMPORTANCE_NONE || importance > NotificationManager.IMPORTANCE_MAX) {
+                                throw new IllegalArgumentException("Invalid importance " + importance);
+                            }
+                            String name = options.optString("name", id);
+                            String description = options.optString("description", null);
+                            String sound = options.optString("sound", null);
+                            Integer visibility = options.has("visibility") ? options.getInt("visibility") : null;
+                            Boolean vibration = options.has("vibration") ? options.getBoolean("vibration") : null;
+                            Boolean light = options.has("light") ? options.getBoolean("light") : null;
+                            String lightColor = options.optString("lightColor", null);
+                            Boolean badge = options.has("badge") ? options.getBoolean("badge") : null;
+                            String fingerprint = FirebasePluginChannelFingerprints.of(id, name, description, sound, importance, visibility, vibration, light, lightColor, badge, group);
+                            if (FirebasePluginChannelFingerprints.isCommitted(applicationContext, id, fingerprint)) {
+                                result.put("created", true);
+                                result.put("unchanged", true);
+                            } else {
+                                channels.add(buildChannel(id, name, description, sound, importance, visibility, vibration, light, lightColor, badge, group));
+                                fingerprints.add(fingerprint);
+                                result.put("created", true);
+                            }
+                        } catch (Exception e) {
+                            result.put("created", false);
+                            result.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+                        }
+                        results.put(result);
+                    }
+
+                    if (!groups.isEmpty()) {
+                        notificationManager.createNotificationChannelGroups(groups);
+                    }
+                    if (!channels.isEmpty()) {
+                        notificationManager.createNotificationChannels(channels);
+                        for (int i = 0; i < channels.size(); i++) {
+                            NotificationChannel channel = channels.get(i);
+                            FirebasePluginChannelRegistry.onChannelCreated(channel);
+                            FirebasePluginChannelFingerprints.onCommitted(applicationContext, channel.getId(), fingerprints.get(i));
+                            if (channel.getId().equals(defaultChannelId)) {
+                                defaultNotificationChannel = channel;
+                            }
+                        }
+                    }
+                    callbackContext.success(results);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
     private void deleteChannel(final CallbackContext callbackContext, final String channelID) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_CHANNEL, new Runnable() {
             public void run() {
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
                         notificationManager.deleteNotificationChannel(channelID);
+                        FirebasePluginChannelRegistry.onChannelDeleted(channelID);
+                        FirebasePluginChannelFingerprints.onDeleted(applicationContext, channelID);
                     }
                     callbackContext.success();
                 } catch (Exception e) {
@@ -654,17 +1149,13 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void listChannels(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_CHANNEL, new Runnable() {
             public void run() {
                 try {
                     JSONArray channels = new JSONArray();
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-                        for (NotificationChannel channel : notificationManager.getNotificationChannels()) {
-                            JSONObject channelInfo = new JSONObject();
-                            channelInfo.put("id", channel.getId());
-                            channelInfo.put("name", channel.getName());
-                            channels.put(channelInfo);
+                        for (NotificationChannel channel : FirebasePluginChannelRegistry.list(applicationContext)) {
+                            channels.put(channelToJson(channel));
                         }
                     }
                     callbackContext.success(channels);
@@ -675,14 +1166,40 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    @RequiresApi(Build.VERSION_CODES.O)
+    private JSONObject channelToJson(NotificationChannel channel) throws JSONException {
+        JSONObject channelInfo = new JSONObject();
+        channelInfo.put("id", channel.getId());
+        channelInfo.put("name", channel.getName());
+        channelInfo.put("description", channel.getDescription());
+        channelInfo.put("importance", channel.getImportance());
+        channelInfo.put("visibility", channel.getLockscreenVisibility());
+        channelInfo.put("sound", channel.getSound() != null ? channel.getSound().toString() : null);
+        channelInfo.put("vibration", channel.shouldVibrate());
+        if (channel.getVibrationPattern() != null) {
+            JSONArray pattern = new JSONArray();
+            for (long duration : channel.getVibrationPattern()) {
+                pattern.put(duration);
+            }
+            channelInfo.put("vibrationPattern", pattern);
+        }
+        channelInfo.put("light", channel.shouldShowLights());
+        channelInfo.put("lightColor", channel.getLightColor());
+        channelInfo.put("badge", channel.canShowBadge());
+        channelInfo.put("group", channel.getGroup());
+        return channelInfo;
+    }
+
     private void setDefaultChannel(final CallbackContext callbackContext, final JSONObject options) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_CHANNEL, new Runnable() {
             public void run() {
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         // Delete existing default channel
                         NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
                         notificationManager.deleteNotificationChannel(defaultChannelId);
+                        FirebasePluginChannelRegistry.onChannelDeleted(defaultChannelId);
+                        FirebasePluginChannelFingerprints.onDeleted(applicationContext, defaultChannelId);
                     }
                     // Create new one
                     createChannel(callbackContext, options);
@@ -695,10 +1212,10 @@ public class FirebasePlugin extends CordovaPlugin {
 
     // Installations
     private void getInstallationId(JSONArray args, final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
-                    FirebaseInstallations.getInstance().getId().addOnCompleteListener(new OnCompleteListener<String>() {
+                    FirebasePluginInstallationCache.getId().addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
                         public void onComplete(@NonNull Task<String> task) {
                             try {
@@ -722,15 +1239,15 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void getInstallationToken(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
-                    FirebaseInstallations.getInstance().getToken(false).addOnCompleteListener(new OnCompleteListener<InstallationTokenResult>() {
+                    FirebasePluginInstallationCache.getToken(applicationContext).addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
-                        public void onComplete(@NonNull Task<InstallationTokenResult> task) {
+                        public void onComplete(@NonNull Task<String> task) {
                             try {
                                 if (task.isSuccessful()) {
-                                    callbackContext.success(task.getResult().getToken());
+                                    callbackContext.success(task.getResult());
                                 } else if (task.getException() != null) {
                                     callbackContext.error(task.getException().getMessage());
                                 } else {
@@ -749,10 +1266,10 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     private void deleteInstallationId(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseInstallations.getInstance().delete(), callbackContext);
+                    handleTaskOutcome(FirebasePluginInstallationCache.delete(), callbackContext);
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -760,6 +1277,45 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    // Metrics
+    private void getMessagingMetrics(final CallbackContext callbackContext) {
+        FirebasePluginExecutor.execute(FirebasePluginExecutor.LANE_DEFAULT, new Runnable() {
+            public void run() {
+                try {
+                    JSONObject metrics = FirebasePluginMessagingMetrics.getMetrics();
+                    metrics.put("imageLoader", FirebasePluginImageLoader.getInstance(applicationContext).getMetrics());
+                    metrics.put("resourceCache", FirebasePluginResourceCache.getMetrics());
+                    metrics.put("channelRegistry", FirebasePluginChannelRegistry.getMetrics());
+                    metrics.put("channelFingerprints", FirebasePluginChannelFingerprints.getMetrics());
+                    metrics.put("executor", FirebasePluginExecutor.getMetrics());
+                    metrics.put("queue", FirebasePluginMessageQueue.getInstance(applicationContext).getMetrics());
+                    metrics.put("notificationScheduler", FirebasePluginNotificationScheduler.getInstance(applicationContext).getMetrics());
+                    metrics.put("operationQueue", FirebasePluginOperationQueue.getInstance(applicationContext).getMetrics());
+                    metrics.put("jsDispatcher", jsDispatcher.getMetrics());
+                    FirebasePluginMessageDedup dedup = FirebasePluginMessageDedup.getInstance(applicationContext);
+                    if (dedup != null) {
+                        metrics.put("dedup", dedup.getMetrics());
+                    }
+                    FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(applicationContext);
+                    if (journal != null) {
+                        metrics.put("journal", journal.getMetrics());
+                    }
+                    callbackContext.success(metrics);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void getStartupTrace(final CallbackContext callbackContext) {
+        try {
+            callbackContext.success(FirebasePluginStartupTrace.getTrace());
+        } catch (Exception e) {
+            handleExceptionWithContext(e, callbackContext);
+        }
+    }
+
     /*
      * Permissions
      */
@@ -804,11 +1360,15 @@ public class FirebasePlugin extends CordovaPlugin {
      * Helper methods
      */
     private String getPluginVariableFromConfigXml(String key) {
-        int resourceId = applicationContext.getResources().getIdentifier(key.toLowerCase(), "string", applicationContext.getPackageName());
-        if (resourceId != 0) {
-            return applicationContext.getString(resourceId);
-        }
-        return "";
+        return getPluginVariable(applicationContext, key);
+    }
+
+    /**
+     * Reads a plugin variable from its string resource, for callers without a plugin instance such as the messaging service.
+     */
+    protected static String getPluginVariable(Context context, String key) {
+        String value = FirebasePluginResourceCache.getString(context, key.toLowerCase());
+        return value != null ? value : "";
     }
 
     private void handleTaskOutcome(Task task, CallbackContext callbackContext) {
@@ -830,6 +1390,19 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    private FirebasePluginOperationQueue.Callback getOperationCallback(final CallbackContext callbackContext) {
+        return new FirebasePluginOperationQueue.Callback() {
+            @Override
+            public void onComplete(String error) {
+                if (error == null) {
+                    callbackContext.success();
+                } else {
+                    callbackContext.error(error);
+                }
+            }
+        };
+    }
+
     private int conformBooleanForPluginResult(boolean value) {
         return value ? 1 : 0;
     }
@@ -849,6 +1422,12 @@ public class FirebasePlugin extends CordovaPlugin {
         callbackContext.sendPluginResult(pluginResult);
     }
 
+    private void sendJsonResultAndKeepCallback(String json, CallbackContext callbackContext) {
+        PluginResult pluginResult = FirebasePluginJsonWriter.toPluginResult(json);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
     private void sendEmptyPluginResultAndKeepCallback(CallbackContext callbackContext) {
         PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
         pluginResult.setKeepCallback(true);
@@ -867,37 +1446,15 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     public static boolean channelExists(String channelId) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationManager notificationManager = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-            NotificationChannel channel = notificationManager.getNotificationChannel(channelId);
-            return channel != null;
-        }
-        return false;
+        return FirebasePluginChannelRegistry.exists(applicationContext, channelId);
     }
 
     private void executeGlobalJavascript(final String jsString) {
-        cordovaActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    webView.loadUrl("javascript:" + jsString);
-                } catch (Exception e) {
-                    handleExceptionWithoutContext(e);
-                }
-            }
-        });
+        jsDispatcher.dispatch(jsString);
     }
 
     private void executePendingGlobalJavascript() {
-        if (pendingGlobalJS == null) {
-            Log.d(TAG, "No pending global JS calls");
-            return;
-        }
-        Log.d(TAG, "Executing " + pendingGlobalJS.size() + " pending global JS calls");
-        for (String jsString : pendingGlobalJS) {
-            executeGlobalJavascript(jsString);
-        }
-        pendingGlobalJS = null;
+        jsDispatcher.setReady();
     }
 
     public static void sendInstallationIdChange(String installationId) {
@@ -0,0 +1,125 @@
+package org.apache.cordova.firebase;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Decodes notification images at the size of the slot they are displayed in rather than at full resolution.
+ */
+public class FirebasePluginBitmapDecoder {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final long DEFAULT_MESSAGE_BUDGET_BYTES = 4 * 1024 * 1024;
+    static final long LOW_RAM_MESSAGE_BUDGET_BYTES = 1536 * 1024;
+
+    // BigPictureStyle is shown at most 256dp tall, at roughly 2:1
+    private static final int BIG_PICTURE_MAX_HEIGHT_DP = 256;
+
+    /**
+     * @return the memory budget for decoded images per message on this device
+     */
+    public static long getMessageBudgetBytes(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null && activityManager.isLowRamDevice()) {
+            return LOW_RAM_MESSAGE_BUDGET_BYTES;
+        }
+        return DEFAULT_MESSAGE_BUDGET_BYTES;
+    }
+
+    /**
+     * @return {width, height} in pixels of the notification large icon slot
+     */
+    public static int[] getLargeIconSize(Context context) {
+        Resources resources = context.getResources();
+        return new int[]{
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+        };
+    }
+
+    /**
+     * @return {width, height} in pixels of the BigPictureStyle slot
+     */
+    public static int[] getBigPictureSize(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int width = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int height = Math.min(width / 2, Math.round(BIG_PICTURE_MAX_HEIGHT_DP * metrics.density));
+        return new int[]{width, height};
+    }
+
+    /**
+     * Decodes the image file so that it covers the target size, never exceeding budgetBytes.
+     * Images without an alpha channel are decoded as RGB_565.
+     *
+     * @param file image file
+     * @param targetWidth width of the display slot, or 0 to keep the original size (subject to the budget)
+     * @param targetHeight height of the display slot, or 0 to keep the original size (subject to the budget)
+     * @param budgetBytes maximum size of the decoded bitmap
+     * @return decoded bitmap or null if the file could not be decoded
+     */
+    public static Bitmap decode(File file, int targetWidth, int targetHeight, long budgetBytes) {
+        String path = file.getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            Log.w(TAG, "Unable to read image bounds: " + path);
+            return null;
+        }
+
+        Bitmap.Config config = "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+
+        int sampleSize = calculateInSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        while ((long) (sourceWidth / sampleSize) * (sourceHeight / sampleSize) * bytesPerPixel > budgetBytes) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+
+        // Let the decoder do the final scale down to the slot size so no intermediate bitmap is needed
+        int sampledWidth = sourceWidth / sampleSize;
+        int sampledHeight = sourceHeight / sampleSize;
+        boolean scaledByDensity = false;
+        if (targetWidth > 0 && targetHeight > 0 && sampledWidth > targetWidth && sampledHeight > targetHeight) {
+            float scale = Math.max((float) targetWidth / sampledWidth, (float) targetHeight / sampledHeight);
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = Math.max(1, Math.round(sampledWidth * scale));
+            scaledByDensity = true;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap != null && scaledByDensity) {
+            // The decoder leaves inTargetDensity on the bitmap, which would make a Canvas rescale it when drawn
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        if (bitmap != null) {
+            Log.d(TAG, "Decoded image " + sourceWidth + "x" + sourceHeight + " as " + bitmap.getWidth() + "x" + bitmap.getHeight() + " " + config + " (inSampleSize=" + sampleSize + ")");
+        }
+        return bitmap;
+    }
+
+    static int calculateInSampleSize(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while ((sourceWidth / (sampleSize * 2)) >= targetWidth && (sourceHeight / (sampleSize * 2)) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,130 @@
+package org.apache.cordova.firebase;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * A small pool of mutable bitmaps so transformed notification icons can be rendered without a fresh allocation each time.
+ * Released bitmaps are only handed out again after a grace period, since a posted notification may still be
+ * holding a reference to a bitmap that has just been evicted from the image cache. A bitmap belonging to a notification
+ * that is still waiting to be posted is held, and only enters the pool once it has been posted.
+ */
+public class FirebasePluginBitmapPool {
+
+    static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    static final long REUSE_GRACE_MS = 30 * 1000;
+
+    private final long maxBytes;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    private final IdentityHashMap<Bitmap, Integer> holds = new IdentityHashMap<Bitmap, Integer>();
+    // Bitmaps released while held, to be pooled once no longer held
+    private final IdentityHashMap<Bitmap, Boolean> releasedWhileHeld = new IdentityHashMap<Bitmap, Boolean>();
+    private long currentBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public FirebasePluginBitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a cleared bitmap of the requested size and config, reused from the pool if possible
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            Bitmap bitmap = entry.bitmap;
+            if (now - entry.releasedAt < REUSE_GRACE_MS) {
+                // Entries are in release order so the rest are newer still
+                break;
+            }
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                currentBytes -= bitmap.getByteCount();
+                bitmap.eraseColor(Color.TRANSPARENT);
+                hits++;
+                return bitmap;
+            }
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Returns a bitmap to the pool. Bitmaps that are immutable, recycled or don't fit in the pool are dropped.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        if (holds.containsKey(bitmap)) {
+            releasedWhileHeld.put(bitmap, Boolean.TRUE);
+            return;
+        }
+        int size = bitmap.getByteCount();
+        if (size > maxBytes) {
+            return;
+        }
+        while (currentBytes + size > maxBytes && !entries.isEmpty()) {
+            Entry oldest = entries.pollFirst();
+            currentBytes -= oldest.bitmap.getByteCount();
+        }
+        entries.addLast(new Entry(bitmap, SystemClock.elapsedRealtime()));
+        currentBytes += size;
+    }
+
+    /**
+     * Keeps a bitmap out of the pool, e.g. while the notification it belongs to is waiting to be posted,
+     * until {@link #unhold(Bitmap)} has been called as many times as this.
+     */
+    public synchronized void hold(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        Integer count = holds.get(bitmap);
+        holds.put(bitmap, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Releases a hold, pooling the bitmap if it was released while held. The grace period starts now.
+     */
+    public synchronized void unhold(Bitmap bitmap) {
+        Integer count = bitmap != null ? holds.get(bitmap) : null;
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            holds.put(bitmap, count - 1);
+            return;
+        }
+        holds.remove(bitmap);
+        if (releasedWhileHeld.remove(bitmap) != null) {
+            put(bitmap);
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private static class Entry {
+        final Bitmap bitmap;
+        final long releasedAt;
+
+        Entry(Bitmap bitmap, long releasedAt) {
+            this.bitmap = bitmap;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
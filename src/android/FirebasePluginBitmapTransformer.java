@@ -0,0 +1,100 @@
+package org.apache.cordova.firebase;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * Crops notification images to a shape, rendering straight into a pooled bitmap of the final icon size via a BitmapShader.
+ * Paint, Matrix, Canvas and RectF are reused across calls. Besides (at most) its output bitmap, a transform only allocates
+ * the small BitmapShader wrapping its source, since a shader is bound to one bitmap and can't be kept without pinning it.
+ */
+public class FirebasePluginBitmapTransformer {
+
+    public static final String TRANSFORM_NONE = "none";
+    public static final String TRANSFORM_CIRCLE = "circle";
+    public static final String TRANSFORM_ROUNDED = "rounded";
+    public static final String TRANSFORM_SQUARE = "square";
+
+    // Corner radius of the rounded transform as a fraction of the icon size
+    private static final float ROUNDED_CORNER_RATIO = 0.15f;
+
+    private static FirebasePluginBitmapTransformer instance = null;
+
+    private final FirebasePluginBitmapPool pool;
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Matrix matrix = new Matrix();
+    private final Canvas canvas = new Canvas();
+    private final RectF rect = new RectF();
+
+    public static synchronized FirebasePluginBitmapTransformer getInstance() {
+        if (instance == null) {
+            instance = new FirebasePluginBitmapTransformer(new FirebasePluginBitmapPool(FirebasePluginBitmapPool.DEFAULT_MAX_BYTES));
+        }
+        return instance;
+    }
+
+    FirebasePluginBitmapTransformer(FirebasePluginBitmapPool pool) {
+        this.pool = pool;
+    }
+
+    public FirebasePluginBitmapPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return true if the transform produces a new bitmap
+     */
+    public static boolean isTransform(String transform) {
+        return TRANSFORM_CIRCLE.equals(transform) || TRANSFORM_ROUNDED.equals(transform) || TRANSFORM_SQUARE.equals(transform);
+    }
+
+    /**
+     * Center-crops the source to a square of the given size and masks it to the given shape.
+     * The source bitmap is left untouched.
+     *
+     * @param source decoded image
+     * @param transform one of TRANSFORM_CIRCLE, TRANSFORM_ROUNDED or TRANSFORM_SQUARE
+     * @param size edge length of the output in pixels, or 0 to use the shorter edge of the source
+     * @return the transformed bitmap, or the source if the transform is unknown
+     */
+    public synchronized Bitmap transform(Bitmap source, String transform, int size) {
+        if (source == null || !isTransform(transform)) {
+            return source;
+        }
+
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int shortEdge = Math.min(sourceWidth, sourceHeight);
+        int side = size > 0 ? Math.min(size, shortEdge) : shortEdge;
+
+        Bitmap output = pool.get(side, side, Bitmap.Config.ARGB_8888);
+
+        float scale = (float) side / shortEdge;
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((side - sourceWidth * scale) / 2f, (side - sourceHeight * scale) / 2f);
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(matrix);
+        paint.setShader(shader);
+
+        canvas.setBitmap(output);
+        rect.set(0, 0, side, side);
+        if (TRANSFORM_CIRCLE.equals(transform)) {
+            float radius = side / 2f;
+            canvas.drawCircle(radius, radius, radius, paint);
+        } else if (TRANSFORM_ROUNDED.equals(transform)) {
+            float radius = side * ROUNDED_CORNER_RATIO;
+            canvas.drawRoundRect(rect, radius, radius, paint);
+        } else {
+            canvas.drawRect(rect, paint);
+        }
+        canvas.setBitmap(null);
+        paint.setShader(null);
+
+        return output;
+    }
+}
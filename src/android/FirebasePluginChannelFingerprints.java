@@ -0,0 +1,88 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers a hash of the spec each channel was last created from, so that recreating an unchanged channel
+ * (e.g. the default channel on every launch) can be skipped without building it or calling NotificationManager.
+ * A channel is only skipped if it also still exists, as reported by {@link FirebasePluginChannelRegistry},
+ * so settings restored from a backup onto a device without the channel don't prevent it being created.
+ */
+public class FirebasePluginChannelFingerprints {
+
+    static final String KEY_PREFIX = "channel_fingerprint_";
+    // Bump when the way channels are built from their specs changes, so existing channels get recreated
+    static final int VERSION = 1;
+
+    private static final AtomicLong skipped = new AtomicLong();
+    private static final AtomicLong committed = new AtomicLong();
+
+    /**
+     * @return a hash of the given spec fields
+     */
+    public static String of(Object... fields) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, String.valueOf(VERSION));
+        for (Object field : fields) {
+            // Separate fields so e.g. ("ab", "c") and ("a", "bc") hash differently
+            hash = mix(hash, field != null ? "\u0001" + field : "\u0000");
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * @return true if the channel exists and was last created from a spec with this fingerprint
+     */
+    public static boolean isCommitted(Context context, String channelId, String fingerprint) {
+        if (!fingerprint.equals(getSettings(context).getString(KEY_PREFIX + channelId, null))) {
+            return false;
+        }
+        if (!FirebasePluginChannelRegistry.exists(context, channelId)) {
+            return false;
+        }
+        skipped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the fingerprint of a spec that has just been passed to NotificationManager.
+     */
+    public static void onCommitted(Context context, String channelId, String fingerprint) {
+        getSettings(context).edit().putString(KEY_PREFIX + channelId, fingerprint).apply();
+        committed.incrementAndGet();
+    }
+
+    /**
+     * Forgets the fingerprint of a channel that has just been deleted.
+     */
+    public static void onDeleted(Context context, String channelId) {
+        if (channelId != null) {
+            getSettings(context).edit().remove(KEY_PREFIX + channelId).apply();
+        }
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("skipped", skipped.get());
+        metrics.put("committed", committed.get());
+        return metrics;
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static SharedPreferences getSettings(Context context) {
+        return context.getApplicationContext().getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE);
+    }
+}
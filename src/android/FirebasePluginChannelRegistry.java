@@ -0,0 +1,146 @@
+package org.apache.cordova.firebase;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process copy of the app's notification channels so the message hot path doesn't need a binder call to
+ * system_server to check a channel exists. Kept coherent by the plugin's channel operations and periodically
+ * revalidated against NotificationManager, since the user can delete channels in Settings.
+ */
+public class FirebasePluginChannelRegistry {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final long REVALIDATE_INTERVAL_MS = 60 * 1000;
+
+    private static final ConcurrentHashMap<String, NotificationChannel> channels = new ConcurrentHashMap<String, NotificationChannel>();
+    private static volatile long lastSyncedAt = 0;
+    private static volatile boolean synced = false;
+    private static volatile boolean dirty = false;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong binderCalls = new AtomicLong();
+
+    /**
+     * @return true if a channel with this ID exists; always false below Android 8
+     */
+    public static boolean exists(Context context, String channelId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || channelId == null) {
+            return false;
+        }
+        if (ensureFresh(context, false)) {
+            hits.incrementAndGet();
+        }
+        return channels.containsKey(channelId);
+    }
+
+    /**
+     * @return the channel with this ID or null
+     */
+    public static NotificationChannel get(Context context, String channelId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || channelId == null) {
+            return null;
+        }
+        if (ensureFresh(context, false)) {
+            hits.incrementAndGet();
+        }
+        return channels.get(channelId);
+    }
+
+    /**
+     * @return all channels as last reported by NotificationManager
+     */
+    public static List<NotificationChannel> list(Context context) {
+        List<NotificationChannel> result = new ArrayList<NotificationChannel>();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return result;
+        }
+        // Channels the plugin created itself may have been adjusted by the OS, so re-read them before listing
+        if (ensureFresh(context, dirty)) {
+            hits.incrementAndGet();
+        }
+        result.addAll(channels.values());
+        return result;
+    }
+
+    /**
+     * Records a channel that has just been passed to NotificationManager.createNotificationChannel().
+     */
+    public static synchronized void onChannelCreated(NotificationChannel channel) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        channels.put(channel.getId(), channel);
+        dirty = true;
+    }
+
+    /**
+     * Records a channel that has just been passed to NotificationManager.deleteNotificationChannel().
+     */
+    public static synchronized void onChannelDeleted(String channelId) {
+        if (channelId != null) {
+            channels.remove(channelId);
+        }
+    }
+
+    /**
+     * Forces the next lookup to re-read the channels from NotificationManager.
+     */
+    public static void invalidate() {
+        synced = false;
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("hits", hits.get());
+        metrics.put("binderCalls", binderCalls.get());
+        metrics.put("channels", channels.size());
+        return metrics;
+    }
+
+    /**
+     * @return true if the cached channels were fresh enough to use without asking NotificationManager
+     */
+    private static boolean ensureFresh(Context context, boolean force) {
+        if (!force && synced && SystemClock.elapsedRealtime() - lastSyncedAt < REVALIDATE_INTERVAL_MS) {
+            return true;
+        }
+        sync(context);
+        return false;
+    }
+
+    private static synchronized void sync(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        try {
+            NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            List<NotificationChannel> current = notificationManager.getNotificationChannels();
+            binderCalls.incrementAndGet();
+            ConcurrentHashMap<String, NotificationChannel> latest = new ConcurrentHashMap<String, NotificationChannel>();
+            for (NotificationChannel channel : current) {
+                latest.put(channel.getId(), channel);
+            }
+            channels.keySet().retainAll(latest.keySet());
+            channels.putAll(latest);
+            lastSyncedAt = SystemClock.elapsedRealtime();
+            synced = true;
+            dirty = false;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to read notification channels: " + e.getMessage());
+        }
+    }
+}
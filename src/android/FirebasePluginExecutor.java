@@ -0,0 +1,194 @@
+package org.apache.cordova.firebase;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The plugin's own background executor, used instead of the Cordova thread pool shared with other plugins.
+ * A small fixed set of threads takes tasks from a priority queue, so message delivery and token requests
+ * run ahead of channel operations, which in turn run ahead of topic operations.
+ * Tasks in the same lane are started in submission order, but may run concurrently on different threads,
+ * so tasks which mustn't overlap have to synchronize themselves.
+ */
+public class FirebasePluginExecutor {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final int LANE_DELIVERY = 0;
+    public static final int LANE_DEFAULT = 1;
+    public static final int LANE_CHANNEL = 2;
+    public static final int LANE_TOPIC = 3;
+
+    private static final String[] LANE_NAMES = {"delivery", "default", "channel", "topic"};
+
+    static final int THREADS = 2;
+    // Delivery tasks are never rejected, so queued messages can't be lost to a backlog of other work
+    static final int MAX_QUEUED = 256;
+    static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private static ThreadPoolExecutor executor = null;
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final Lane[] lanes = new Lane[LANE_NAMES.length];
+    static {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Runs the task in the background in the given lane.
+     * A task submitted while {@link #shutdown()} is stopping the executor it was handed to is moved to a new executor
+     * if it is a delivery task, so no message is lost, and otherwise dropped.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public static void execute(int lane, Runnable runnable) {
+        ThreadPoolExecutor executor = getExecutor();
+        if (lane != LANE_DELIVERY && executor.getQueue().size() >= MAX_QUEUED) {
+            lanes[lane].rejected.incrementAndGet();
+            throw new RejectedExecutionException("Firebase plugin task queue is full");
+        }
+        lanes[lane].onSubmitted();
+        Task task = new Task(lane, sequence.getAndIncrement(), runnable);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Only a shut down executor rejects tasks, as its queue is unbounded
+            if (lane == LANE_DELIVERY) {
+                try {
+                    getExecutor().execute(task);
+                    return;
+                } catch (RejectedExecutionException again) {
+                    // Shut down again in the meantime
+                }
+            }
+            lanes[lane].rejected.incrementAndGet();
+            Log.w(TAG, "Dropped Firebase plugin " + LANE_NAMES[lane] + " task submitted during shutdown");
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and lets queued ones finish, waiting briefly for them off the calling thread.
+     * A later {@link #execute(int, Runnable)} starts a new executor.
+     */
+    public static synchronized void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        final ThreadPoolExecutor stopping = executor;
+        executor = null;
+        stopping.shutdown();
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (!stopping.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        Log.w(TAG, "Firebase plugin tasks still running after shutdown: " + stopping.getQueue().size() + " queued");
+                        stopping.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    stopping.shutdownNow();
+                }
+            }
+        }, "FirebasePluginExecutorShutdown").start();
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        ThreadPoolExecutor executor = FirebasePluginExecutor.executor;
+        metrics.put("queued", executor != null ? executor.getQueue().size() : 0);
+        metrics.put("active", executor != null ? executor.getActiveCount() : 0);
+        JSONObject lanesJson = new JSONObject();
+        for (int i = 0; i < lanes.length; i++) {
+            lanesJson.put(LANE_NAMES[i], lanes[i].toJson());
+        }
+        metrics.put("lanes", lanesJson);
+        return metrics;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "FirebasePlugin-" + threadNumber.incrementAndGet());
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private static class Task implements Runnable, Comparable<Task> {
+        private final int lane;
+        private final long sequence;
+        private final Runnable runnable;
+        private final long submittedAt = SystemClock.elapsedRealtime();
+
+        Task(int lane, long sequence, Runnable runnable) {
+            this.lane = lane;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            lanes[lane].onStarted(SystemClock.elapsedRealtime() - submittedAt);
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (lane != other.lane) {
+                return lane < other.lane ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class Lane {
+        final AtomicLong rejected = new AtomicLong();
+        private long submitted = 0;
+        private long started = 0;
+        private long maxDepth = 0;
+        private long totalWaitMs = 0;
+        private long maxWaitMs = 0;
+
+        synchronized void onSubmitted() {
+            submitted++;
+            maxDepth = Math.max(maxDepth, submitted - started);
+        }
+
+        synchronized void onStarted(long waitMs) {
+            started++;
+            totalWaitMs += waitMs;
+            maxWaitMs = Math.max(maxWaitMs, waitMs);
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("submitted", submitted);
+            json.put("rejected", rejected.get());
+            json.put("depth", submitted - started);
+            json.put("maxDepth", maxDepth);
+            json.put("waitAvgMs", started > 0 ? totalWaitMs / started : 0);
+            json.put("waitMaxMs", maxWaitMs);
+            return json;
+        }
+    }
+}
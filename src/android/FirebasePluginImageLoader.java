@@ -0,0 +1,475 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads notification images with an in-memory LRU cache (keyed by URL and target size),
+ * an on-disk cache with size-based eviction and ETag/Last-Modified revalidation,
+ * and single-flight coalescing of concurrent fetches of the same URL.
+ */
+public class FirebasePluginImageLoader {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final String CACHE_DIR_NAME = "firebase-notification-images";
+    static final long DEFAULT_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    static final int DEFAULT_MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    static final long DEFAULT_FRESHNESS_MS = 60 * 60 * 1000;
+    static final long MAX_IMAGE_BYTES = 8 * 1024 * 1024;
+
+    private static final int FETCH_THREADS = 2;
+    private static final int FETCH_QUEUE_CAPACITY = 32;
+    private static final String DATA_FILE_SUFFIX = ".img";
+    private static final String META_FILE_SUFFIX = ".meta";
+    private static final String TMP_FILE_INFIX = ".tmp";
+    // Longer than any download can take, so only files left behind by a killed process are removed
+    private static final long STALE_TMP_FILE_MS = 10 * 60 * 1000;
+
+    private static FirebasePluginImageLoader instance = null;
+
+    private final File cacheDir;
+    private final long maxDiskCacheBytes;
+    private final long decodeBudgetBytes;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final ThreadPoolExecutor fetchExecutor;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ConcurrentHashMap<String, Future<File>> inFlightFetches = new ConcurrentHashMap<String, Future<File>>();
+    private final Object diskLock = new Object();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalescedFetches = new AtomicLong();
+    private final AtomicLong notModifiedResponses = new AtomicLong();
+    private final AtomicLong fetchCount = new AtomicLong();
+    private final AtomicLong fetchErrors = new AtomicLong();
+    private final AtomicLong fetchTimeTotalMs = new AtomicLong();
+    private final AtomicLong fetchTimeMaxMs = new AtomicLong();
+
+    public static synchronized FirebasePluginImageLoader getInstance(Context context) {
+        if (instance == null) {
+            File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+            long decodeBudgetBytes = FirebasePluginBitmapDecoder.getMessageBudgetBytes(context);
+            instance = new FirebasePluginImageLoader(cacheDir, DEFAULT_DISK_CACHE_BYTES, DEFAULT_MEMORY_CACHE_BYTES, decodeBudgetBytes, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+        }
+        return instance;
+    }
+
+    FirebasePluginImageLoader(File cacheDir, long maxDiskCacheBytes, int maxMemoryCacheBytes, long decodeBudgetBytes, int connectTimeoutMs, int readTimeoutMs) {
+        this.cacheDir = cacheDir;
+        this.maxDiskCacheBytes = maxDiskCacheBytes;
+        this.decodeBudgetBytes = decodeBudgetBytes;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.memoryCache = new LruCache<String, Bitmap>(maxMemoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // Transformed images are rendered into pooled bitmaps, so hand them back for reuse
+                if (evicted && !key.endsWith("#" + FirebasePluginBitmapTransformer.TRANSFORM_NONE)) {
+                    FirebasePluginBitmapTransformer.getInstance().getPool().put(oldValue);
+                }
+            }
+        };
+        this.fetchExecutor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(FETCH_QUEUE_CAPACITY), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "FirebasePluginImageFetch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.fetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the image at the given URL, waiting at most timeoutMs for it to be fetched.
+     * If the wait times out, the fetch carries on in the background so the image is cached for subsequent messages.
+     *
+     * @param url URL of the image
+     * @param targetWidth width of the slot the image is displayed in, or 0 for the original size
+     * @param targetHeight height of the slot the image is displayed in, or 0 for the original size
+     * @param timeoutMs maximum time to block the calling thread
+     * @return the image or null if it could not be loaded in time
+     */
+    public Bitmap load(String url, int targetWidth, int targetHeight, long timeoutMs) {
+        return load(url, targetWidth, targetHeight, FirebasePluginBitmapTransformer.TRANSFORM_NONE, timeoutMs);
+    }
+
+    /**
+     * As {@link #load(String, int, int, long)} but applies the given FirebasePluginBitmapTransformer transform.
+     * Transformed images are cached by URL, size and transform; the untransformed image is not kept.
+     */
+    public Bitmap load(String url, int targetWidth, int targetHeight, String transform, long timeoutMs) {
+        String memoryKey = url + "@" + targetWidth + "x" + targetHeight + "#" + transform;
+        Bitmap bitmap = memoryCache.get(memoryKey);
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+            return bitmap;
+        }
+
+        File file = getFile(url, timeoutMs);
+        if (file == null) {
+            return null;
+        }
+
+        bitmap = decode(file, targetWidth, targetHeight);
+        if (bitmap != null && FirebasePluginBitmapTransformer.isTransform(transform)) {
+            Bitmap source = bitmap;
+            bitmap = FirebasePluginBitmapTransformer.getInstance().transform(source, transform, Math.min(targetWidth, targetHeight));
+            if (bitmap != source) {
+                source.recycle();
+            }
+        }
+        if (bitmap != null) {
+            memoryCache.put(memoryKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    public JSONObject getMetrics() throws JSONException {
+        long fetches = fetchCount.get();
+        JSONObject metrics = new JSONObject();
+        metrics.put("memoryHits", memoryHits.get());
+        metrics.put("diskHits", diskHits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("coalescedFetches", coalescedFetches.get());
+        metrics.put("notModified", notModifiedResponses.get());
+        metrics.put("fetches", fetches);
+        metrics.put("fetchErrors", fetchErrors.get());
+        metrics.put("fetchTimeAvgMs", fetches > 0 ? fetchTimeTotalMs.get() / fetches : 0);
+        metrics.put("fetchTimeMaxMs", fetchTimeMaxMs.get());
+        FirebasePluginBitmapPool pool = FirebasePluginBitmapTransformer.getInstance().getPool();
+        metrics.put("bitmapPoolHits", pool.getHitCount());
+        metrics.put("bitmapPoolMisses", pool.getMissCount());
+        return metrics;
+    }
+
+    protected Bitmap decode(File file, int targetWidth, int targetHeight) {
+        return FirebasePluginBitmapDecoder.decode(file, targetWidth, targetHeight, decodeBudgetBytes);
+    }
+
+    private File getFile(final String url, long timeoutMs) {
+        final String name = hashUrl(url);
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return fetchToDisk(url, name);
+            }
+        }) {
+            @Override
+            protected void done() {
+                inFlightFetches.remove(url, this);
+            }
+        };
+
+        Future<File> future = inFlightFetches.putIfAbsent(url, task);
+        if (future == null) {
+            future = task;
+            try {
+                fetchExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                inFlightFetches.remove(url, task);
+                fetchErrors.incrementAndGet();
+                Log.w(TAG, "Image fetch queue full, skipping image: " + url);
+                return null;
+            }
+        } else {
+            coalescedFetches.incrementAndGet();
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Timed out after " + timeoutMs + "ms waiting for image: " + url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to load image: " + url + "; " + e.getMessage());
+        }
+        return null;
+    }
+
+    private File fetchToDisk(String url, String name) throws IOException {
+        File dataFile = new File(cacheDir, name + DATA_FILE_SUFFIX);
+        File metaFile = new File(cacheDir, name + META_FILE_SUFFIX);
+        CacheEntry entry = dataFile.exists() ? readMeta(metaFile) : null;
+
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            diskHits.incrementAndGet();
+            dataFile.setLastModified(System.currentTimeMillis());
+            return dataFile;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            connection.setDoInput(true);
+            if (entry != null) {
+                if (entry.etag != null) {
+                    connection.setRequestProperty("If-None-Match", entry.etag);
+                }
+                if (entry.lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+                }
+            }
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                notModifiedResponses.incrementAndGet();
+                diskHits.incrementAndGet();
+                entry.expiresAt = computeExpiry(connection);
+                writeMeta(metaFile, entry);
+                dataFile.setLastModified(System.currentTimeMillis());
+                return dataFile;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP response " + responseCode + " for " + url);
+            }
+
+            misses.incrementAndGet();
+            synchronized (diskLock) {
+                if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+                    throw new IOException("Unable to create image cache directory " + cacheDir);
+                }
+            }
+            File tmpFile = new File(cacheDir, name + TMP_FILE_INFIX + Thread.currentThread().getId());
+            boolean moved = false;
+            try {
+                InputStream input = connection.getInputStream();
+                OutputStream output = new FileOutputStream(tmpFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    long total = 0;
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        total += read;
+                        if (total > MAX_IMAGE_BYTES) {
+                            throw new IOException("Image exceeds " + MAX_IMAGE_BYTES + " bytes: " + url);
+                        }
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    output.close();
+                    input.close();
+                }
+
+                CacheEntry newEntry = new CacheEntry();
+                newEntry.etag = connection.getHeaderField("ETag");
+                newEntry.lastModified = connection.getHeaderField("Last-Modified");
+                newEntry.expiresAt = computeExpiry(connection);
+
+                synchronized (diskLock) {
+                    if (!tmpFile.renameTo(dataFile)) {
+                        throw new IOException("Unable to move fetched image into cache: " + url);
+                    }
+                    moved = true;
+                    writeMeta(metaFile, newEntry);
+                    trimDiskCache();
+                }
+            } finally {
+                if (!moved) {
+                    tmpFile.delete();
+                }
+            }
+            return dataFile;
+        } catch (IOException e) {
+            fetchErrors.incrementAndGet();
+            if (entry != null) {
+                // Serve the stale copy rather than nothing if revalidation failed
+                Log.w(TAG, "Image revalidation failed, using cached copy: " + e.getMessage());
+                return dataFile;
+            }
+            throw e;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            fetchCount.incrementAndGet();
+            fetchTimeTotalMs.addAndGet(elapsed);
+            long max;
+            while (elapsed > (max = fetchTimeMaxMs.get()) && !fetchTimeMaxMs.compareAndSet(max, elapsed)) {
+                // retry
+            }
+        }
+    }
+
+    private long computeExpiry(HttpURLConnection connection) {
+        long now = System.currentTimeMillis();
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8)) * 1000;
+                    } catch (NumberFormatException e) {
+                        // fall through to the default
+                    }
+                }
+            }
+        }
+        long expires = connection.getHeaderFieldDate("Expires", 0);
+        if (expires > 0) {
+            return expires;
+        }
+        return now + DEFAULT_FRESHNESS_MS;
+    }
+
+    private void trimDiskCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (file.getName().contains(TMP_FILE_INFIX)) {
+                // Partial downloads aren't part of the cache; ones this old were abandoned by a killed process
+                if (now - file.lastModified() > STALE_TMP_FILE_MS) {
+                    file.delete();
+                }
+                continue;
+            }
+            total += file.length();
+        }
+        if (total <= maxDiskCacheBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= maxDiskCacheBytes) {
+                break;
+            }
+            String path = file.getPath();
+            if (!path.endsWith(DATA_FILE_SUFFIX)) {
+                continue;
+            }
+            File metaFile = new File(path.substring(0, path.length() - DATA_FILE_SUFFIX.length()) + META_FILE_SUFFIX);
+            total -= file.length() + metaFile.length();
+            file.delete();
+            metaFile.delete();
+            Log.d(TAG, "Evicted cached image " + file.getName());
+        }
+    }
+
+    private CacheEntry readMeta(File metaFile) {
+        if (!metaFile.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(metaFile));
+            CacheEntry entry = new CacheEntry();
+            entry.expiresAt = input.readLong();
+            entry.etag = input.readBoolean() ? input.readUTF() : null;
+            entry.lastModified = input.readBoolean() ? input.readUTF() : null;
+            return entry;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void writeMeta(File metaFile, CacheEntry entry) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(metaFile));
+        try {
+            output.writeLong(entry.expiresAt);
+            output.writeBoolean(entry.etag != null);
+            if (entry.etag != null) output.writeUTF(entry.etag);
+            output.writeBoolean(entry.lastModified != null);
+            if (entry.lastModified != null) output.writeUTF(entry.lastModified);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String hashUrl(String url) {
+        // 64-bit FNV-1a is plenty to key a cache of a few hundred images
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+
+    private static void closeQuietly(InputStream input) {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class CacheEntry {
+        String etag;
+        String lastModified;
+        long expiresAt;
+    }
+}
@@ -0,0 +1,150 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.installations.FirebaseInstallations;
+import com.google.firebase.installations.InstallationTokenResult;
+
+/**
+ * Serves the Firebase installation ID and auth token from memory so each request doesn't need a round trip
+ * to the Installations SDK. The token is kept until shortly before it expires; once it is within the
+ * refresh window of expiry, a refresh is started in the background while the cached token continues to be served.
+ * Concurrent fetches and refreshes share one in-flight task. Cleared by deleteInstallationId().
+ */
+public class FirebasePluginInstallationCache {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final long DEFAULT_REFRESH_WINDOW_MS = 60 * 60 * 1000;
+    // A token this close to expiry isn't served, since it might expire before it reaches the backend
+    static final long MIN_VALIDITY_MS = 60 * 1000;
+
+    private static String id = null;
+    private static Task<String> idInFlight = null;
+    private static String token = null;
+    private static long tokenExpiresAt = 0;
+    private static Task<String> tokenInFlight = null;
+    private static long refreshWindowMs = -1;
+    // Incremented when a deletion starts and completes, so a request started before completion can't cache a deleted installation's credentials
+    private static int generation = 0;
+
+    public static synchronized Task<String> getId() {
+        if (id != null) {
+            return Tasks.forResult(id);
+        }
+        if (idInFlight != null) {
+            return idInFlight;
+        }
+        final int requestGeneration = generation;
+        final Task<String> task = FirebaseInstallations.getInstance().getId();
+        idInFlight = task;
+        task.addOnCompleteListener(new OnCompleteListener<String>() {
+            @Override
+            public void onComplete(@NonNull Task<String> completed) {
+                synchronized (FirebasePluginInstallationCache.class) {
+                    if (idInFlight == completed) {
+                        idInFlight = null;
+                    }
+                    if (completed.isSuccessful() && requestGeneration == generation) {
+                        id = completed.getResult();
+                    }
+                }
+            }
+        });
+        return task;
+    }
+
+    public static synchronized Task<String> getToken(Context context) {
+        long now = System.currentTimeMillis();
+        if (token != null && now < tokenExpiresAt - MIN_VALIDITY_MS) {
+            if (now >= tokenExpiresAt - getRefreshWindowMs(context)) {
+                fetchToken(true);
+            }
+            return Tasks.forResult(token);
+        }
+        return fetchToken(false);
+    }
+
+    /**
+     * Deletes the installation, forgetting its cached ID and token both now and once the deletion completes,
+     * so credentials fetched while the deletion is in progress aren't kept either.
+     */
+    public static synchronized Task<Void> delete() {
+        invalidate();
+        Task<Void> task = FirebaseInstallations.getInstance().delete();
+        task.addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> completed) {
+                invalidate();
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Forgets the cached ID and token.
+     */
+    public static synchronized void invalidate() {
+        generation++;
+        id = null;
+        idInFlight = null;
+        token = null;
+        tokenExpiresAt = 0;
+        tokenInFlight = null;
+    }
+
+    private static Task<String> fetchToken(boolean forceRefresh) {
+        if (tokenInFlight != null) {
+            return tokenInFlight;
+        }
+        final int requestGeneration = generation;
+        Task<String> task = FirebaseInstallations.getInstance().getToken(forceRefresh).continueWith(new Continuation<InstallationTokenResult, String>() {
+            @Override
+            public String then(@NonNull Task<InstallationTokenResult> completed) throws Exception {
+                InstallationTokenResult result = completed.getResult(Exception.class);
+                synchronized (FirebasePluginInstallationCache.class) {
+                    if (requestGeneration == generation) {
+                        token = result.getToken();
+                        // Both timestamps are in seconds: creation since the epoch, expiration relative to creation
+                        tokenExpiresAt = (result.getTokenCreationTimestamp() + result.getTokenExpirationTimestamp()) * 1000;
+                    }
+                }
+                return result.getToken();
+            }
+        });
+        tokenInFlight = task;
+        task.addOnCompleteListener(new OnCompleteListener<String>() {
+            @Override
+            public void onComplete(@NonNull Task<String> completed) {
+                synchronized (FirebasePluginInstallationCache.class) {
+                    if (tokenInFlight == completed) {
+                        tokenInFlight = null;
+                    }
+                }
+                if (!completed.isSuccessful()) {
+                    Log.w(TAG, "Installation token request failed: " + (completed.getException() != null ? completed.getException().getMessage() : "unknown reason"));
+                }
+            }
+        });
+        return task;
+    }
+
+    private static long getRefreshWindowMs(Context context) {
+        if (refreshWindowMs < 0) {
+            refreshWindowMs = DEFAULT_REFRESH_WINDOW_MS;
+            try {
+                refreshWindowMs = Long.parseLong(FirebasePlugin.getPluginVariable(context, "FIREBASE_INSTALLATION_TOKEN_REFRESH_WINDOW_SECONDS")) * 1000;
+            } catch (NumberFormatException e) {
+                // Use default
+            }
+        }
+        return refreshWindowMs;
+    }
+}
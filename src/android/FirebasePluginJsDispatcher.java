@@ -0,0 +1,149 @@
+package org.apache.cordova.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.apache.cordova.CordovaWebView;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs the plugin's global JS calls (those not answering a specific plugin call, e.g. installation ID changes)
+ * in the webview. Calls made within the same frame are combined into one script and evaluated through the
+ * Cordova engine's evaluateJavascript(), rather than each being posted to the UI thread and loaded as a javascript: URL.
+ * Calls run in the order they were dispatched, each isolated so one throwing doesn't prevent the rest running.
+ * Nothing is run until the page has finished loading; up to MAX_BACKLOG calls are held until then,
+ * after which the oldest are dropped.
+ */
+public class FirebasePluginJsDispatcher {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final int MAX_BACKLOG = 256;
+
+    private final CordovaWebView webView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<String> pending = new ArrayDeque<String>();
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+    private final Runnable postFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private boolean ready = false;
+    private boolean flushScheduled = false;
+
+    private long dispatched = 0;
+    private long dropped = 0;
+    private long flushes = 0;
+    private int maxBatch = 0;
+    private long totalFlushNanos = 0;
+    private long maxFlushNanos = 0;
+
+    public FirebasePluginJsDispatcher(CordovaWebView webView) {
+        this.webView = webView;
+    }
+
+    /**
+     * Queues a call to be run in the webview, in the next frame if the page has finished loading.
+     */
+    public synchronized void dispatch(String js) {
+        if (pending.size() >= MAX_BACKLOG) {
+            pending.pollFirst();
+            dropped++;
+            Log.w(TAG, "Global JS backlog full, dropped oldest call");
+        }
+        pending.addLast(js);
+        dispatched++;
+        scheduleFlush();
+    }
+
+    /**
+     * Starts running calls, e.g. because the page has finished loading.
+     */
+    public synchronized void setReady() {
+        ready = true;
+        scheduleFlush();
+    }
+
+    /**
+     * Discards queued calls. Must be called on the UI thread.
+     */
+    public synchronized void cancel() {
+        pending.clear();
+        mainHandler.removeCallbacks(postFrameCallback);
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        flushScheduled = false;
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("dispatched", dispatched);
+        metrics.put("dropped", dropped);
+        metrics.put("pending", pending.size());
+        metrics.put("flushes", flushes);
+        metrics.put("callsPerFlushAvg", flushes > 0 ? (double) (dispatched - dropped - pending.size()) / flushes : 0);
+        metrics.put("callsPerFlushMax", maxBatch);
+        // UI thread time spent handing each combined script to the webview
+        metrics.put("flushAvgUs", flushes > 0 ? totalFlushNanos / flushes / 1000 : 0);
+        metrics.put("flushMaxUs", maxFlushNanos / 1000);
+        return metrics;
+    }
+
+    private void scheduleFlush() {
+        if (!ready || flushScheduled || pending.isEmpty()) {
+            return;
+        }
+        flushScheduled = true;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback.run();
+        } else {
+            mainHandler.post(postFrameCallback);
+        }
+    }
+
+    private void flush() {
+        String script;
+        int batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending.size();
+            StringBuilder builder = new StringBuilder();
+            for (String js : pending) {
+                builder.append("try{").append(js).append("}catch(e){console.error(e);}\n");
+            }
+            pending.clear();
+            script = builder.toString();
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            webView.getEngine().evaluateJavascript(script, null);
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        synchronized (this) {
+            flushes++;
+            maxBatch = Math.max(maxBatch, batch);
+            totalFlushNanos += elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import org.apache.cordova.PluginResult;
+
+import java.util.Collection;
+
+/**
+ * Serializes message bundles straight to JSON text in a reusable per-thread buffer, without building
+ * an intermediate JSONObject that Cordova would then serialize again.
+ * The output matches what JSONObject produces for the same bundle, except that nested bundles and arrays
+ * are written as JSON objects and arrays rather than as their toString() value.
+ */
+public class FirebasePluginJsonWriter {
+
+    // Buffers that grew beyond this for an unusually large message aren't kept around
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    /**
+     * @return the bundle as a JSON object string
+     */
+    public static String toJson(Bundle bundle) {
+        StringBuilder out = buffers.get();
+        out.setLength(0);
+        writeBundle(out, bundle);
+        String json = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            buffers.remove();
+        }
+        return json;
+    }
+
+    /**
+     * @return a result that passes already serialized JSON to the webview as-is
+     */
+    public static PluginResult toPluginResult(String json) {
+        return new RawJsonResult(json);
+    }
+
+    public static void writeBundle(StringBuilder out, Bundle bundle) {
+        out.append('{');
+        boolean first = true;
+        for (String key : bundle.keySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            writeString(out, key);
+            out.append(':');
+            if (FirebasePluginMessageQueue.KEY_COLLAPSED_COUNT.equals(key)) {
+                out.append(bundle.getInt(key));
+            } else {
+                writeValue(out, getValue(bundle, key));
+            }
+        }
+        out.append('}');
+    }
+
+    /**
+     * Messages opened from a notification carry whatever extras the launching intent had, e.g. FCM's own
+     * google.sent_time (long) and google.ttl (int), and Bundle has no way to ask a value's type, so other keys
+     * are read untyped. A typed getter of the wrong type returns its default and logs a ClassCastException.
+     */
+    @SuppressWarnings("deprecation")
+    private static Object getValue(Bundle bundle, String key) {
+        return bundle.get(key);
+    }
+
+    private static void writeValue(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(out, ((Number) value).doubleValue());
+        } else if (value instanceof Bundle) {
+            writeBundle(out, (Bundle) value);
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) out.append(',');
+                writeValue(out, array[i]);
+            }
+            out.append(']');
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) out.append(',');
+                out.append(array[i]);
+            }
+            out.append(']');
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) out.append(',');
+                out.append(array[i]);
+            }
+            out.append(']');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) out.append(',');
+                first = false;
+                writeValue(out, item);
+            }
+            out.append(']');
+        } else {
+            writeString(out, value.toString());
+        }
+    }
+
+    private static void writeDouble(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON
+            out.append("null");
+        } else if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+
+    /**
+     * Writes a quoted JSON string. U+2028 and U+2029 are escaped too, since the bridge may evaluate the payload as JS.
+     */
+    private static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = null;
+            } else {
+                continue;
+            }
+            out.append(value, start, i);
+            if (escape != null) {
+                out.append(escape);
+            } else {
+                out.append("\\u").append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf]).append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+    /**
+     * Hands pre-serialized JSON to the bridge, which would otherwise require a JSONObject or JSONArray to encode.
+     */
+    private static class RawJsonResult extends PluginResult {
+        private final String json;
+
+        RawJsonResult(String json) {
+            super(Status.OK, "");
+            this.json = json;
+        }
+
+        @Override
+        public int getMessageType() {
+            return MESSAGE_TYPE_JSON;
+        }
+
+        @Override
+        public String getMessage() {
+            return json;
+        }
+    }
+}
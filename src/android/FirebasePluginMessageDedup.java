@@ -0,0 +1,250 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Index of recently received message IDs used to drop messages FCM delivers more than once.
+ *
+ * IDs are stored as 64-bit hashes in an open-addressing table with linear probing, each paired with its expiry time.
+ * Expired slots are reused by inserts but still continue a probe chain, so entries never need to be deleted.
+ * In persistent mode the table lives in a memory-mapped file and survives process restarts.
+ */
+public class FirebasePluginMessageDedup {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String MODE_PERSISTENT = "persistent";
+    public static final String MODE_MEMORY = "memory";
+    public static final String MODE_OFF = "off";
+
+    static final String FILE_NAME = "firebase-message-dedup.bin";
+    static final int SLOTS = 2048;
+    // Table is rebuilt once this many slots are occupied, live or expired, to keep probe chains short
+    static final int MAX_OCCUPIED = SLOTS / 2;
+    static final long TTL_MS = 24 * 60 * 60 * 1000;
+
+    private static final long MAGIC = 0x465044445550L;
+    private static final int HEADER_LONGS = 2;
+
+    private static FirebasePluginMessageDedup instance = null;
+
+    // [magic, occupied] followed by SLOTS pairs of [hash, expiresAt]
+    private final LongBuffer table;
+    private final String mode;
+    private int occupied;
+
+    private long checks = 0;
+    private long hits = 0;
+    private long rebuilds = 0;
+
+    /**
+     * @return the index, or null if deduplication is disabled by the FIREBASE_MESSAGING_DEDUP plugin variable
+     */
+    public static synchronized FirebasePluginMessageDedup getInstance(Context context) {
+        if (instance == null) {
+            String mode = FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_DEDUP");
+            if (MODE_OFF.equals(mode)) {
+                return null;
+            }
+            LongBuffer table = null;
+            if (!MODE_MEMORY.equals(mode)) {
+                mode = MODE_PERSISTENT;
+                table = mapTable(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            }
+            if (table == null) {
+                mode = MODE_MEMORY;
+                table = LongBuffer.allocate(HEADER_LONGS + SLOTS * 2);
+            }
+            instance = new FirebasePluginMessageDedup(table, mode);
+        }
+        return instance;
+    }
+
+    FirebasePluginMessageDedup(LongBuffer table, String mode) {
+        this.table = table;
+        this.mode = mode;
+        if (table.get(0) != MAGIC) {
+            clear();
+        }
+        occupied = (int) table.get(1);
+    }
+
+    /**
+     * @return true if the ID was recorded by {@link #record(String)} within the last {@link #TTL_MS}
+     */
+    public synchronized boolean contains(String messageId) {
+        if (messageId == null || messageId.isEmpty()) {
+            return false;
+        }
+        checks++;
+        long hash = hash(messageId);
+        long now = System.currentTimeMillis();
+        int slot = (int) (hash & (SLOTS - 1));
+        for (int probes = 0; probes < SLOTS; probes++) {
+            long key = keyAt(slot);
+            if (key == 0) {
+                break;
+            }
+            if (key == hash && expiryAt(slot) > now) {
+                hits++;
+                return true;
+            }
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Records the message ID as seen. Called once the message has been handled, so a message whose handling
+     * failed or was cut short by the process dying is not treated as a duplicate when FCM redelivers it.
+     */
+    public synchronized void record(String messageId) {
+        if (messageId == null || messageId.isEmpty()) {
+            return;
+        }
+        long hash = hash(messageId);
+        long now = System.currentTimeMillis();
+        int reusable = -1;
+        int slot = (int) (hash & (SLOTS - 1));
+        for (int probes = 0; probes < SLOTS; probes++) {
+            long key = keyAt(slot);
+            if (key == 0) {
+                break;
+            }
+            if (key == hash) {
+                // Already recorded, e.g. by a concurrent delivery; just extend it
+                put(slot, hash, now + TTL_MS);
+                return;
+            }
+            if (reusable < 0 && expiryAt(slot) <= now) {
+                reusable = slot;
+            }
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+
+        if (reusable >= 0) {
+            put(reusable, hash, now + TTL_MS);
+            return;
+        }
+        if (occupied >= MAX_OCCUPIED) {
+            // Rebuilding only keeps live entries, none of which matched, so the first empty slot is free to use
+            rebuild(now);
+            slot = (int) (hash & (SLOTS - 1));
+            while (keyAt(slot) != 0) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+        }
+        put(slot, hash, now + TTL_MS);
+        occupied++;
+        table.put(1, occupied);
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("mode", mode);
+        metrics.put("checks", checks);
+        metrics.put("hits", hits);
+        metrics.put("occupied", occupied);
+        metrics.put("rebuilds", rebuilds);
+        return metrics;
+    }
+
+    /**
+     * Re-inserts only live entries. If more than half the table is still live, the entries closest to expiry are dropped.
+     */
+    private void rebuild(long now) {
+        rebuilds++;
+        long[] hashes = new long[SLOTS];
+        long[] expiries = new long[SLOTS];
+        int live = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (keyAt(slot) != 0 && expiryAt(slot) > now) {
+                hashes[live] = keyAt(slot);
+                expiries[live] = expiryAt(slot);
+                live++;
+            }
+        }
+        long cutoff = 0;
+        if (live > MAX_OCCUPIED / 2) {
+            long[] sorted = Arrays.copyOf(expiries, live);
+            Arrays.sort(sorted);
+            cutoff = sorted[live - MAX_OCCUPIED / 2];
+        }
+
+        clear();
+        for (int i = 0; i < live; i++) {
+            if (expiries[i] < cutoff) {
+                continue;
+            }
+            int slot = (int) (hashes[i] & (SLOTS - 1));
+            while (keyAt(slot) != 0) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            put(slot, hashes[i], expiries[i]);
+            occupied++;
+        }
+        table.put(1, occupied);
+        Log.d(TAG, "Rebuilt message dedup index: " + live + " live, " + occupied + " kept");
+    }
+
+    private void clear() {
+        for (int i = 0; i < table.capacity(); i++) {
+            table.put(i, 0);
+        }
+        table.put(0, MAGIC);
+        occupied = 0;
+    }
+
+    private long keyAt(int slot) {
+        return table.get(HEADER_LONGS + slot * 2);
+    }
+
+    private long expiryAt(int slot) {
+        return table.get(HEADER_LONGS + slot * 2 + 1);
+    }
+
+    private void put(int slot, long hash, long expiresAt) {
+        // Expiry first, so a slot is never seen as occupied by a hash without its expiry
+        table.put(HEADER_LONGS + slot * 2 + 1, expiresAt);
+        table.put(HEADER_LONGS + slot * 2, hash);
+    }
+
+    /**
+     * 64-bit FNV-1a. 0 marks an empty slot so is never returned.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    private static LongBuffer mapTable(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (HEADER_LONGS + SLOTS * 2) * 8L);
+                return buffer.asLongBuffer();
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map message dedup index, falling back to memory: " + e.getMessage());
+            return null;
+        }
+    }
+}
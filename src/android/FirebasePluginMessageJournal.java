@@ -0,0 +1,673 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only on-disk journal of messages queued for delivery to JS.
+ *
+ * Messages are appended to memory-mapped segment files as compact binary records:
+ * <pre>
+ *     int magic | int payload length | int CRC32 of payload | payload
+ *     message payload = short entry count, then per entry: UTF key, byte type, value
+ *     tombstone payload = long position of the message record it discards
+ * </pre>
+ * A message record's position (segment index and offset) identifies it. A tombstone is appended when a journaled message
+ * leaves the queue without needing to be replayed: it was delivered, superseded by a newer message with the same
+ * collapse key, or dropped by the overflow policy. Each message is journaled once while it is queued, even if it is
+ * re-queued because it couldn't be delivered after all.
+ *
+ * A segment written by this process is deleted as soon as all its messages have tombstones and none of its tombstones
+ * covers a message in a segment that still exists, so a segment whose messages are all discarded can't take with it
+ * the tombstones that keep older messages from being replayed. The journal is capped at MAX_SEGMENTS segments: when
+ * it would grow past that, the messages still queued are rewritten into fresh segments and the old ones deleted, and
+ * if they wouldn't fit either, a new message is queued without being journaled.
+ *
+ * Segments written by a previous process are "recovered": on open they are validated, torn tails are discarded
+ * and each file is truncated to its used length. Recovered messages without a tombstone are streamed back one record
+ * at a time by {@link #replayRecovered(Visitor)}, so a large backlog is never read into the heap at once.
+ */
+public class FirebasePluginMessageJournal {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String FSYNC_ALWAYS = "always";
+    public static final String FSYNC_BATCH = "batch";
+    public static final String FSYNC_NEVER = "never";
+
+    static final String DIR_NAME = "firebase-message-journal";
+    static final int SEGMENT_SIZE = 256 * 1024;
+    static final int FSYNC_BATCH_SIZE = 16;
+    static final int MAX_SEGMENTS = 16;
+
+    private static final int RECORD_MAGIC = 0x46504d4a;
+    private static final int TOMBSTONE_MAGIC = 0x4650544a;
+    private static final int HEADER_SIZE = 12;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_STRING = 's';
+    private static final byte TYPE_INT = 'i';
+    private static final byte TYPE_LONG = 'l';
+    private static final byte TYPE_BOOLEAN = 'b';
+    private static final byte TYPE_DOUBLE = 'd';
+    private static final byte TYPE_NULL = 'n';
+
+    public interface Visitor {
+        void onMessage(Bundle bundle);
+    }
+
+    private static FirebasePluginMessageJournal instance = null;
+
+    private final File dir;
+    private final String fsyncPolicy;
+    private final List<File> recoveredSegments = new ArrayList<File>();
+    // Segments written by this process, oldest first; the last is the active one
+    private final List<LiveSegment> liveSegments = new ArrayList<LiveSegment>();
+    private int nextSegmentIndex = 0;
+    private int activeSegmentIndex = -1;
+    private MappedByteBuffer activeBuffer = null;
+    // Positions of the records of messages journaled by this process and still queued
+    private final IdentityHashMap<Bundle, Long> livePositions = new IdentityHashMap<Bundle, Long>();
+    // Positions of recovered messages which were discarded before the previous process ended
+    private final HashSet<Long> tombstoned = new HashSet<Long>();
+    private int appendsSinceForce = 0;
+    private long recoveredCount = 0;
+
+    private long appended = 0;
+    private long tombstones = 0;
+    private long replayed = 0;
+    private long forces = 0;
+    private long tornRecords = 0;
+    private long reclaimedSegments = 0;
+    private long compactions = 0;
+    private long notJournaled = 0;
+
+    /**
+     * @return the journal, or null if it is disabled by the FIREBASE_MESSAGING_JOURNAL_ENABLED plugin variable
+     */
+    public static synchronized FirebasePluginMessageJournal getInstance(Context context) {
+        if (instance == null) {
+            if (FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_JOURNAL_ENABLED").equals("false")) {
+                return null;
+            }
+            String fsyncPolicy = FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_JOURNAL_FSYNC");
+            if (!FSYNC_ALWAYS.equals(fsyncPolicy) && !FSYNC_NEVER.equals(fsyncPolicy)) {
+                fsyncPolicy = FSYNC_BATCH;
+            }
+            final FirebasePluginMessageJournal journal = new FirebasePluginMessageJournal(new File(context.getApplicationContext().getFilesDir(), DIR_NAME), fsyncPolicy);
+            FirebasePluginMessageQueue.getInstance(context).setDiscardListener(new FirebasePluginMessageQueue.DiscardListener() {
+                @Override
+                public void onDiscarded(Bundle bundle) {
+                    journal.tombstone(bundle);
+                }
+            });
+            instance = journal;
+        }
+        return instance;
+    }
+
+    FirebasePluginMessageJournal(File dir, String fsyncPolicy) {
+        this.dir = dir;
+        this.fsyncPolicy = fsyncPolicy;
+        recover();
+    }
+
+    /**
+     * @return number of valid messages recovered from previous processes that have not yet been replayed
+     */
+    public synchronized long getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    /**
+     * Durably records a message queued for later delivery, unless it is already journaled, e.g. because it was
+     * taken from the queue but couldn't be delivered and has been queued again.
+     */
+    public synchronized void append(Bundle bundle) {
+        if (livePositions.containsKey(bundle)) {
+            return;
+        }
+        long span = FirebasePluginMessagingMetrics.start();
+        try {
+            byte[] payload = encode(bundle);
+            if (HEADER_SIZE + payload.length > SEGMENT_SIZE) {
+                Log.w(TAG, "Message too large to journal: " + payload.length + " bytes");
+                return;
+            }
+            if (!reserve(payload.length)) {
+                notJournaled++;
+                Log.w(TAG, "Message journal is full, queued message not journaled");
+                return;
+            }
+            writeMessage(bundle, payload);
+            appended++;
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        } finally {
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_JOURNAL_APPEND, span);
+        }
+    }
+
+    /**
+     * Records that a journaled message no longer needs to be replayed, because it has been delivered or discarded by the queue.
+     * Does nothing if the message wasn't journaled by this process.
+     */
+    public synchronized void tombstone(Bundle bundle) {
+        Long position = livePositions.remove(bundle);
+        if (position == null) {
+            return;
+        }
+        try {
+            writeTombstone(position);
+            tombstones++;
+            LiveSegment segment = liveSegment(segmentIndex(position));
+            if (segment != null) {
+                segment.liveMessages--;
+            }
+            reclaim();
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+    }
+
+    /**
+     * Streams messages recovered from previous processes to the visitor, deleting each segment once it has been replayed.
+     * A replayed message the visitor journals again (by queuing it) has its recovered record tombstoned, so a crash
+     * before the segment is deleted can't replay it a second time.
+     *
+     * @return number of messages replayed
+     */
+    public synchronized int replayRecovered(Visitor visitor) {
+        int replayed = 0;
+        while (!recoveredSegments.isEmpty()) {
+            File segment = recoveredSegments.get(0);
+            int index = segmentIndex(segment);
+            try {
+                MappedByteBuffer buffer = map(segment, FileChannel.MapMode.READ_ONLY, segment.length());
+                while (true) {
+                    int start = buffer.position();
+                    boolean message = buffer.remaining() >= HEADER_SIZE && buffer.getInt(start) == RECORD_MAGIC;
+                    ByteBuffer payload = readPayload(buffer);
+                    if (payload == null) {
+                        break;
+                    }
+                    if (!message || tombstoned.contains(position(index, start))) {
+                        continue;
+                    }
+                    Bundle bundle = decodeOrNull(payload);
+                    if (bundle != null) {
+                        visitor.onMessage(bundle);
+                        replayed++;
+                        if (livePositions.containsKey(bundle)) {
+                            writeTombstone(position(index, start));
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+            segment.delete();
+            recoveredSegments.remove(0);
+        }
+        recoveredCount = 0;
+        tombstoned.clear();
+        this.replayed += replayed;
+        if (replayed > 0) {
+            Log.d(TAG, "Replayed " + replayed + " journaled messages");
+        }
+        return replayed;
+    }
+
+    /**
+     * Discards the messages journaled by this process once they have been delivered.
+     */
+    public synchronized void clearLive() {
+        activeBuffer = null;
+        activeSegmentIndex = -1;
+        appendsSinceForce = 0;
+        livePositions.clear();
+        for (LiveSegment segment : liveSegments) {
+            segment.file.delete();
+        }
+        liveSegments.clear();
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("fsync", fsyncPolicy);
+        metrics.put("appended", appended);
+        metrics.put("tombstones", tombstones);
+        metrics.put("forces", forces);
+        metrics.put("recovered", recoveredCount);
+        metrics.put("replayed", replayed);
+        metrics.put("tornRecords", tornRecords);
+        metrics.put("liveSegments", liveSegments.size());
+        metrics.put("reclaimedSegments", reclaimedSegments);
+        metrics.put("compactions", compactions);
+        metrics.put("notJournaled", notJournaled);
+        return metrics;
+    }
+
+    private void recover() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Integer.compare(segmentIndex(a), segmentIndex(b));
+            }
+        });
+        for (File file : files) {
+            int index = segmentIndex(file);
+            if (index < 0) {
+                continue;
+            }
+            nextSegmentIndex = Math.max(nextSegmentIndex, index + 1);
+            try {
+                int[] result = compact(file);
+                if (result[0] == 0 && result[1] == 0) {
+                    file.delete();
+                } else {
+                    recoveredSegments.add(file);
+                    recoveredCount += result[0];
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable journal segment " + file.getName() + ": " + e.getMessage());
+                file.delete();
+            }
+        }
+        // Tombstones may outlive the segments of the messages they cover, which were deleted once fully discarded
+        HashSet<Integer> recoveredIndices = new HashSet<Integer>();
+        for (File segment : recoveredSegments) {
+            recoveredIndices.add(segmentIndex(segment));
+        }
+        Iterator<Long> positions = tombstoned.iterator();
+        while (positions.hasNext()) {
+            if (!recoveredIndices.contains(segmentIndex(positions.next()))) {
+                positions.remove();
+            }
+        }
+        // A tombstone is only written for a message record, once
+        recoveredCount = Math.max(0, recoveredCount - tombstoned.size());
+        if (recoveredCount == 0) {
+            for (File segment : recoveredSegments) {
+                segment.delete();
+            }
+            recoveredSegments.clear();
+            tombstoned.clear();
+        }
+        if (recoveredCount > 0) {
+            Log.d(TAG, "Recovered " + recoveredCount + " journaled messages from " + recoveredSegments.size() + " segments");
+        }
+    }
+
+    /**
+     * Validates a segment, collecting its tombstones, and truncates it after its last intact record.
+     *
+     * @return {message record count, tombstone count, valid length}
+     */
+    private int[] compact(File segment) throws IOException {
+        MappedByteBuffer buffer = map(segment, FileChannel.MapMode.READ_ONLY, segment.length());
+        int count = 0;
+        int tombstoneCount = 0;
+        int validLength = 0;
+        while (true) {
+            boolean tombstone = buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == TOMBSTONE_MAGIC;
+            ByteBuffer payload = readPayload(buffer);
+            if (payload == null) {
+                break;
+            }
+            if (!tombstone) {
+                count++;
+            } else if (payload.remaining() >= 8) {
+                tombstoned.add(payload.getLong());
+                tombstoneCount++;
+            }
+            validLength = buffer.position();
+        }
+        if (validLength < segment.length()) {
+            if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0) {
+                // Something other than the unused zero-filled tail follows the last intact record: a torn write
+                tornRecords++;
+            }
+            RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        return new int[]{count, tombstoneCount, validLength};
+    }
+
+    private void writeMessage(Bundle bundle, byte[] payload) throws IOException {
+        long position = write(RECORD_MAGIC, payload);
+        livePositions.put(bundle, position);
+        liveSegment(segmentIndex(position)).liveMessages++;
+    }
+
+    private void writeTombstone(long position) throws IOException {
+        write(TOMBSTONE_MAGIC, ByteBuffer.allocate(8).putLong(position).array());
+        liveSegments.get(liveSegments.size() - 1).tombstoneTargets.add(segmentIndex(position));
+    }
+
+    /**
+     * Makes sure a message record of the given payload length can be written without the journal growing past
+     * MAX_SEGMENTS, compacting it if necessary.
+     *
+     * @return false if the messages still queued leave no room for it
+     */
+    private boolean reserve(int payloadLength) throws IOException {
+        if (activeBuffer != null && activeBuffer.remaining() >= HEADER_SIZE + payloadLength) {
+            return true;
+        }
+        reclaim();
+        if (liveSegments.size() < MAX_SEGMENTS) {
+            return true;
+        }
+        compactLive();
+        return liveSegments.size() < MAX_SEGMENTS
+                || (activeBuffer != null && activeBuffer.remaining() >= HEADER_SIZE + payloadLength);
+    }
+
+    /**
+     * Deletes segments whose messages have all been discarded, once no other segment's messages depend on their tombstones.
+     */
+    private void reclaim() {
+        boolean deleted;
+        do {
+            deleted = false;
+            // The active segment is still being written to, so it is never reclaimed
+            for (int i = 0; i < liveSegments.size() - 1; i++) {
+                LiveSegment segment = liveSegments.get(i);
+                if (segment.liveMessages == 0 && !coversExistingMessages(segment)) {
+                    segment.file.delete();
+                    liveSegments.remove(i);
+                    reclaimedSegments++;
+                    deleted = true;
+                    break;
+                }
+            }
+        } while (deleted);
+    }
+
+    private boolean coversExistingMessages(LiveSegment segment) {
+        for (int target : segment.tombstoneTargets) {
+            if (target != segment.index && liveSegment(target) != null) {
+                return true;
+            }
+        }
+        for (File recovered : recoveredSegments) {
+            if (segment.tombstoneTargets.contains(segmentIndex(recovered))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the messages still queued into fresh segments and deletes the old ones. Each copied message's old record
+     * is tombstoned before the old segments are deleted, so a crash in between can't replay it twice.
+     * Skipped if the copies would take up at least half of the journal's cap, as it would then soon be full again.
+     */
+    private void compactLive() throws IOException {
+        ArrayList<Map.Entry<Bundle, Long>> live = new ArrayList<Map.Entry<Bundle, Long>>(livePositions.entrySet());
+        Collections.sort(live, new Comparator<Map.Entry<Bundle, Long>>() {
+            @Override
+            public int compare(Map.Entry<Bundle, Long> a, Map.Entry<Bundle, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        ArrayList<byte[]> payloads = new ArrayList<byte[]>(live.size());
+        long[] oldPositions = new long[live.size()];
+        long size = 0;
+        for (int i = 0; i < live.size(); i++) {
+            byte[] payload = encode(live.get(i).getKey());
+            payloads.add(payload);
+            oldPositions[i] = live.get(i).getValue();
+            size += 2 * HEADER_SIZE + payload.length + 8;
+        }
+        if (size >= (long) SEGMENT_SIZE * MAX_SEGMENTS / 2) {
+            return;
+        }
+        ArrayList<LiveSegment> old = new ArrayList<LiveSegment>(liveSegments);
+        activeBuffer = null;
+        for (int i = 0; i < live.size(); i++) {
+            writeMessage(live.get(i).getKey(), payloads.get(i));
+        }
+        for (long position : oldPositions) {
+            writeTombstone(position);
+        }
+        if (activeBuffer != null) {
+            activeBuffer.force();
+            forces++;
+            appendsSinceForce = 0;
+        }
+        for (LiveSegment segment : old) {
+            segment.file.delete();
+            liveSegments.remove(segment);
+        }
+        compactions++;
+        Log.d(TAG, "Compacted message journal from " + old.size() + " to " + liveSegments.size() + " segments");
+    }
+
+    private LiveSegment liveSegment(int index) {
+        for (LiveSegment segment : liveSegments) {
+            if (segment.index == index) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends a record, forcing it to storage according to the fsync policy.
+     *
+     * @return the record's position
+     */
+    private long write(int magic, byte[] payload) throws IOException {
+        if (activeBuffer == null || activeBuffer.remaining() < HEADER_SIZE + payload.length) {
+            rollSegment();
+        }
+        long position = position(activeSegmentIndex, activeBuffer.position());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        activeBuffer.putInt(magic);
+        activeBuffer.putInt(payload.length);
+        activeBuffer.putInt((int) crc.getValue());
+        activeBuffer.put(payload);
+
+        if (FSYNC_ALWAYS.equals(fsyncPolicy) || (FSYNC_BATCH.equals(fsyncPolicy) && ++appendsSinceForce >= FSYNC_BATCH_SIZE)) {
+            activeBuffer.force();
+            forces++;
+            appendsSinceForce = 0;
+        }
+        return position;
+    }
+
+    private void rollSegment() throws IOException {
+        if (activeBuffer != null) {
+            activeBuffer.force();
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + dir);
+        }
+        activeSegmentIndex = nextSegmentIndex++;
+        File segment = new File(dir, SEGMENT_PREFIX + activeSegmentIndex + SEGMENT_SUFFIX);
+        activeBuffer = map(segment, FileChannel.MapMode.READ_WRITE, SEGMENT_SIZE);
+        liveSegments.add(new LiveSegment(activeSegmentIndex, segment));
+    }
+
+    // Segment indices are never reused while a segment with that index exists, so positions are unique across processes
+    private static long position(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    private static int segmentIndex(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int segmentIndex(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Bundle decodeOrNull(ByteBuffer payload) {
+        try {
+            return decode(payload);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer readPayload(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int magic = buffer.getInt();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if ((magic != RECORD_MAGIC && magic != TOMBSTONE_MAGIC) || length < 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return null;
+        }
+        buffer.position(buffer.position() + length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static byte[] encode(Bundle bundle) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeShort(bundle.size());
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            output.writeUTF(key);
+            if (value == null) {
+                output.writeByte(TYPE_NULL);
+            } else if (value instanceof Integer) {
+                output.writeByte(TYPE_INT);
+                output.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                output.writeByte(TYPE_LONG);
+                output.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte(TYPE_BOOLEAN);
+                output.writeBoolean((Boolean) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                output.writeByte(TYPE_DOUBLE);
+                output.writeDouble(((Number) value).doubleValue());
+            } else {
+                byte[] string = value.toString().getBytes(UTF8);
+                output.writeByte(TYPE_STRING);
+                output.writeInt(string.length);
+                output.write(string);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Bundle decode(ByteBuffer payload) {
+        int count = payload.getShort() & 0xffff;
+        Bundle bundle = new Bundle(count);
+        for (int i = 0; i < count; i++) {
+            String key = readUTF(payload);
+            byte type = payload.get();
+            switch (type) {
+                case TYPE_INT: bundle.putInt(key, payload.getInt()); break;
+                case TYPE_LONG: bundle.putLong(key, payload.getLong()); break;
+                case TYPE_BOOLEAN: bundle.putBoolean(key, payload.get() != 0); break;
+                case TYPE_DOUBLE: bundle.putDouble(key, payload.getDouble()); break;
+                case TYPE_NULL: bundle.putString(key, null); break;
+                default:
+                    byte[] string = new byte[payload.getInt()];
+                    payload.get(string);
+                    bundle.putString(key, new String(string, UTF8));
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Reads a string written by DataOutput.writeUTF(). Keys are plain identifiers, so decoding the modified UTF-8
+     * as standard UTF-8 is sufficient.
+     */
+    private static String readUTF(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort() & 0xffff];
+        payload.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static class LiveSegment {
+        final int index;
+        final File file;
+        // Message records in the segment without a tombstone
+        int liveMessages = 0;
+        // Indices of the segments holding the messages its tombstones cover
+        final HashSet<Integer> tombstoneTargets = new HashSet<Integer>();
+
+        LiveSegment(int index, File file) {
+            this.index = index;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of messages waiting to be delivered to JS.
+ * Producers (the messaging service, intents, the plugin itself) may offer concurrently, only locking for messages
+ * with a collapse key; there is a single consumer, the pending notification flush, which drains by polling so that
+ * messages offered while a flush is in progress are never lost.
+ *
+ * Messages with an explicit collapse key supersede any queued message with the same key, so only the newest is kept;
+ * its {@link #KEY_COLLAPSED_COUNT} tells JS how many earlier messages it replaced. Replacing and enqueuing happen under
+ * one lock, so producers racing with the same key can't both leave their message queued.
+ *
+ * When the queue is full the overflow policy decides which message is dropped:
+ * <ul>
+ *     <li>{@link #OVERFLOW_DROP_OLDEST} - the oldest queued message</li>
+ *     <li>{@link #OVERFLOW_DROP_LOWEST_PRIORITY} - the oldest message with the lowest notification priority, which may be the new one</li>
+ *     <li>{@link #OVERFLOW_COALESCE_COLLAPSE_KEY} - the oldest message with the same collapse key as the new one, else the oldest</li>
+ * </ul>
+ */
+public class FirebasePluginMessageQueue {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String OVERFLOW_DROP_OLDEST = "drop_oldest";
+    public static final String OVERFLOW_DROP_LOWEST_PRIORITY = "drop_lowest_priority";
+    public static final String OVERFLOW_COALESCE_COLLAPSE_KEY = "coalesce_collapse_key";
+
+    public static final String KEY_COLLAPSED_COUNT = "collapsed_count";
+
+    static final int DEFAULT_CAPACITY = 200;
+
+    public interface DiscardListener {
+        /**
+         * Called when a queued message is superseded or dropped, so it will never be delivered.
+         */
+        void onDiscarded(Bundle bundle);
+    }
+
+    private static FirebasePluginMessageQueue instance = null;
+
+    private final ConcurrentLinkedDeque<Bundle> queue = new ConcurrentLinkedDeque<Bundle>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentHashMap<String, Bundle> newestByCollapseKey = new ConcurrentHashMap<String, Bundle>();
+    private final int capacity;
+    private final String overflowPolicy;
+    private final String packageName;
+    private volatile DiscardListener discardListener = null;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
+    public static synchronized FirebasePluginMessageQueue getInstance(Context context) {
+        if (instance == null) {
+            int capacity = DEFAULT_CAPACITY;
+            try {
+                capacity = Integer.parseInt(FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_QUEUE_CAPACITY"));
+            } catch (NumberFormatException e) {
+                // Use default
+            }
+            String overflowPolicy = FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_QUEUE_OVERFLOW");
+            if (!OVERFLOW_DROP_LOWEST_PRIORITY.equals(overflowPolicy) && !OVERFLOW_COALESCE_COLLAPSE_KEY.equals(overflowPolicy)) {
+                overflowPolicy = OVERFLOW_DROP_OLDEST;
+            }
+            instance = new FirebasePluginMessageQueue(Math.max(1, capacity), overflowPolicy, context.getPackageName());
+        }
+        return instance;
+    }
+
+    FirebasePluginMessageQueue(int capacity, String overflowPolicy, String packageName) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.packageName = packageName;
+    }
+
+    public void setDiscardListener(DiscardListener listener) {
+        this.discardListener = listener;
+    }
+
+    /**
+     * Queues a message, applying the overflow policy if the queue is full.
+     *
+     * @return false if the message was dropped by the overflow policy straight away
+     */
+    public boolean offer(Bundle bundle) {
+        if (bundle == null) {
+            return false;
+        }
+        String collapseKey = bundle.getString("collapse_key");
+        Bundle superseded = null;
+        if (NotificationSpec.isCollapsible(collapseKey, packageName)) {
+            synchronized (newestByCollapseKey) {
+                Bundle previous = newestByCollapseKey.put(collapseKey, bundle);
+                // If the consumer has already taken the previous message, it has been delivered and there's nothing to replace
+                if (previous != null && previous != bundle && queue.removeFirstOccurrence(previous)) {
+                    size.decrementAndGet();
+                    coalesced.incrementAndGet();
+                    bundle.putInt(KEY_COLLAPSED_COUNT, previous.getInt(KEY_COLLAPSED_COUNT, 0) + 1);
+                    superseded = previous;
+                }
+                queue.offerLast(bundle);
+            }
+        } else {
+            queue.offerLast(bundle);
+        }
+        if (superseded != null) {
+            onDiscarded(superseded);
+        }
+        enqueued.incrementAndGet();
+        int current = size.incrementAndGet();
+        boolean queued = true;
+        while (current > capacity) {
+            Bundle victim = evict(bundle);
+            if (victim == null) {
+                break;
+            }
+            if (victim == bundle) {
+                queued = false;
+            }
+            current = size.get();
+        }
+        int mark = highWaterMark.get();
+        while (current > mark && !highWaterMark.compareAndSet(mark, current)) {
+            mark = highWaterMark.get();
+        }
+        return queued;
+    }
+
+    /**
+     * @return the oldest queued message, or null if the queue is empty. Must only be called by the single consumer.
+     */
+    public Bundle poll() {
+        Bundle bundle = queue.pollFirst();
+        if (bundle != null) {
+            size.decrementAndGet();
+            forgetCollapseKey(bundle);
+        }
+        return bundle;
+    }
+
+    public int size() {
+        return Math.max(0, size.get());
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("capacity", capacity);
+        metrics.put("overflow", overflowPolicy);
+        metrics.put("size", size());
+        metrics.put("highWaterMark", highWaterMark.get());
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("coalesced", coalesced.get());
+        return metrics;
+    }
+
+    /**
+     * Removes one message according to the overflow policy.
+     *
+     * @return the removed message, or null if another producer or the consumer brought the queue within capacity in the meantime
+     */
+    private Bundle evict(Bundle incoming) {
+        Bundle victim;
+        boolean coalescing;
+        while (true) {
+            victim = null;
+            coalescing = false;
+            if (OVERFLOW_DROP_LOWEST_PRIORITY.equals(overflowPolicy)) {
+                victim = findLowestPriority();
+            } else if (OVERFLOW_COALESCE_COLLAPSE_KEY.equals(overflowPolicy)) {
+                victim = findSameCollapseKey(incoming);
+                coalescing = victim != null;
+            }
+
+            boolean removed;
+            if (victim != null) {
+                removed = queue.removeFirstOccurrence(victim);
+            } else {
+                victim = queue.pollFirst();
+                removed = victim != null;
+            }
+            if (removed) {
+                break;
+            }
+            // Lost a race with the consumer or another producer; retry only if still over capacity
+            if (size.get() <= capacity || queue.isEmpty()) {
+                return null;
+            }
+        }
+        size.decrementAndGet();
+        forgetCollapseKey(victim);
+        if (coalescing) {
+            coalesced.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+        Log.w(TAG, "Message queue full (" + capacity + "), " + (coalescing ? "coalesced" : "dropped") + " message: " + victim.getString("google.message_id", victim.getString("id")));
+        onDiscarded(victim);
+        return victim;
+    }
+
+    private void onDiscarded(Bundle bundle) {
+        DiscardListener listener = discardListener;
+        if (listener != null) {
+            listener.onDiscarded(bundle);
+        }
+    }
+
+    private void forgetCollapseKey(Bundle bundle) {
+        String collapseKey = bundle.getString("collapse_key");
+        if (collapseKey != null) {
+            newestByCollapseKey.remove(collapseKey, bundle);
+        }
+    }
+
+    private Bundle findLowestPriority() {
+        Bundle lowest = null;
+        int lowestPriority = Integer.MAX_VALUE;
+        for (Iterator<Bundle> it = queue.iterator(); it.hasNext(); ) {
+            Bundle candidate = it.next();
+            int priority = getPriority(candidate);
+            if (priority < lowestPriority) {
+                lowest = candidate;
+                lowestPriority = priority;
+            }
+        }
+        return lowest;
+    }
+
+    private Bundle findSameCollapseKey(Bundle incoming) {
+        String collapseKey = incoming.getString("collapse_key");
+        if (collapseKey == null) {
+            return null;
+        }
+        for (Iterator<Bundle> it = queue.iterator(); it.hasNext(); ) {
+            Bundle candidate = it.next();
+            if (candidate != incoming && collapseKey.equals(candidate.getString("collapse_key"))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Same default as NotificationSpec, so a message without a priority ranks as it is displayed
+    private static int getPriority(Bundle bundle) {
+        String priority = bundle.getString("priority");
+        if (priority == null) {
+            return NotificationCompat.PRIORITY_MAX;
+        }
+        try {
+            return Integer.parseInt(priority);
+        } catch (NumberFormatException e) {
+            return NotificationCompat.PRIORITY_MAX;
+        }
+    }
+}
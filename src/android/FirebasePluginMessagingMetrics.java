@@ -0,0 +1,153 @@
+package org.apache.cordova.firebase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Lightweight latency tracing for the message delivery pipeline.
+ * Each stage records durations into a fixed-size ring buffer, so recording allocates nothing.
+ * When disabled, {@link #start()} returns 0 and {@link #end(int, long)} returns immediately.
+ *
+ * Usage:
+ * <pre>
+ *     long span = FirebasePluginMessagingMetrics.start();
+ *     ...
+ *     FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_PARSE, span);
+ * </pre>
+ */
+public class FirebasePluginMessagingMetrics {
+
+    public static final int STAGE_RECEIVE = 0;
+    public static final int STAGE_RECEIVER_DISPATCH = 1;
+    public static final int STAGE_PARSE = 2;
+    public static final int STAGE_IMAGE_FETCH = 3;
+    public static final int STAGE_BUILD = 4;
+    public static final int STAGE_NOTIFY = 5;
+    public static final int STAGE_PLUGIN_SEND = 6;
+    public static final int STAGE_SERIALIZE = 7;
+    public static final int STAGE_PLUGIN_RESULT = 8;
+    public static final int STAGE_JOURNAL_APPEND = 9;
+
+    private static final String[] STAGE_NAMES = {
+            "receive",
+            "receiverDispatch",
+            "parse",
+            "imageFetch",
+            "build",
+            "notify",
+            "pluginSend",
+            "serialize",
+            "pluginResult",
+            "journalAppend",
+    };
+
+    static final int RING_SIZE = 512;
+
+    private static volatile boolean enabled = false;
+    private static final Stage[] stages = new Stage[STAGE_NAMES.length];
+    static {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Stage();
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        FirebasePluginMessagingMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a span start timestamp, or 0 if tracing is disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since the span was started against the given stage.
+     */
+    public static void end(int stage, long start) {
+        if (start == 0) {
+            return;
+        }
+        stages[stage].record(System.nanoTime() - start);
+    }
+
+    public static void reset() {
+        for (Stage stage : stages) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * @return per-stage count/min/p50/p95/p99/max in microseconds. Percentiles are over the last RING_SIZE samples.
+     */
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("enabled", enabled);
+        result.put("unit", "us");
+        JSONObject stagesJson = new JSONObject();
+        for (int i = 0; i < stages.length; i++) {
+            stagesJson.put(STAGE_NAMES[i], stages[i].toJson());
+        }
+        result.put("stages", stagesJson);
+        return result;
+    }
+
+    private static class Stage {
+        private final long[] samples = new long[RING_SIZE];
+        private int next = 0;
+        private long count = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = 0;
+
+        synchronized void record(long durationNanos) {
+            samples[next] = durationNanos;
+            next = (next + 1) % RING_SIZE;
+            count++;
+            if (durationNanos < min) min = durationNanos;
+            if (durationNanos > max) max = durationNanos;
+        }
+
+        synchronized void reset() {
+            next = 0;
+            count = 0;
+            min = Long.MAX_VALUE;
+            max = 0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            long[] sorted;
+            long count, min, max;
+            synchronized (this) {
+                count = this.count;
+                min = this.min;
+                max = this.max;
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, RING_SIZE));
+            }
+            Arrays.sort(sorted);
+
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("min", count > 0 ? min / 1000 : 0);
+            json.put("p50", percentile(sorted, 0.50) / 1000);
+            json.put("p95", percentile(sorted, 0.95) / 1000);
+            json.put("p99", percentile(sorted, 0.99) / 1000);
+            json.put("max", max / 1000);
+            return json;
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+}
@@ -1,11 +1,8 @@
 package org.apache.cordova.firebase;
 
 import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.graphics.Bitmap;
 
 import android.media.RingtoneManager;
@@ -15,28 +12,13 @@ import android.os.Bundle;
 import androidx.core.app.NotificationCompat;
 import android.util.Log;
 import android.app.Notification;
-import android.text.TextUtils;
 import android.text.Html;
 import android.text.Spanned;
 import android.content.ContentResolver;
-import android.graphics.Color;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.Paint;
-import android.graphics.Canvas;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Map;
-import java.util.Random;
-
 public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
     private static final String TAG = "FirebasePlugin";
@@ -46,6 +28,19 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
     static final String imageTypeCircle = "circle";
     static final String imageTypeBigPicture = "big_picture";
+    static final String imageTypeRounded = "rounded";
+    static final String imageTypeSquare = "square";
+
+    // Maximum time to hold up the FCM delivery thread waiting for a notification image
+    static final long IMAGE_LOAD_TIMEOUT_MS = 5000;
+    static final String COLLAPSE_KEY_TAG_PREFIX = "collapse:";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FirebasePluginResourceCache.warm(this);
+        FirebasePluginMessagingMetrics.setEnabled(FirebasePlugin.getPluginVariable(this, "FIREBASE_MESSAGING_METRICS_ENABLED").equals("true"));
+    }
 
     /**
      * Called if InstanceID token is updated. This may occur if the security of
@@ -57,6 +52,8 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
         try{
             super.onNewToken(refreshedToken);
             Log.d(TAG, "Refreshed token: " + refreshedToken);
+            FirebasePluginTokenCache.onNewToken(this, refreshedToken);
+            FirebasePluginTopicStore.getInstance(this).onNewToken();
             FirebasePlugin.sendToken(refreshedToken);
         }catch (Exception e){
             FirebasePlugin.handleExceptionWithoutContext(e);
@@ -64,18 +61,32 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
     }
 
     public Bitmap getBitmapFromURL(String strURL) {
-        try {
-            URL url = new URL(strURL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(15000);
-            connection.setDoInput(true);
-            connection.connect();
-            InputStream input = connection.getInputStream();
-            return BitmapFactory.decodeStream(input);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+        return getBitmapFromURL(strURL, null);
+    }
+
+    /**
+     * Loads the image downsampled to the notification slot it will be displayed in,
+     * cropped to the shape requested by the image type.
+     *
+     * @param strURL URL of the image
+     * @param imageType value of notification_android_image_type
+     */
+    public Bitmap getBitmapFromURL(String strURL, String imageType) {
+        int[] targetSize;
+        String transform = FirebasePluginBitmapTransformer.TRANSFORM_NONE;
+        if (imageTypeBigPicture.equalsIgnoreCase(imageType)) {
+            targetSize = FirebasePluginBitmapDecoder.getBigPictureSize(this);
+        } else {
+            targetSize = FirebasePluginBitmapDecoder.getLargeIconSize(this);
+            if (imageTypeCircle.equalsIgnoreCase(imageType)) {
+                transform = FirebasePluginBitmapTransformer.TRANSFORM_CIRCLE;
+            } else if (imageTypeRounded.equalsIgnoreCase(imageType)) {
+                transform = FirebasePluginBitmapTransformer.TRANSFORM_ROUNDED;
+            } else if (imageTypeSquare.equalsIgnoreCase(imageType)) {
+                transform = FirebasePluginBitmapTransformer.TRANSFORM_SQUARE;
+            }
         }
+        return FirebasePluginImageLoader.getInstance(this).load(strURL, targetSize[0], targetSize[1], transform, IMAGE_LOAD_TIMEOUT_MS);
     }
 
     /**
@@ -89,6 +100,7 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
      */
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
+        long receiveSpan = FirebasePluginMessagingMetrics.start();
         try{
             // [START_EXCLUDE]
             // There are two types of messages data messages and notification messages. Data messages are handled
@@ -100,10 +112,26 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             // messages. For more see: https://firebase.google.com/docs/cloud-messaging/concept-options
             // [END_EXCLUDE]
 
+            // FCM may redeliver a message after a retry or reconnect; skip ones already handled
+            FirebasePluginMessageDedup dedup = FirebasePluginMessageDedup.getInstance(this);
+            String messageId = remoteMessage.getMessageId();
+            if (messageId == null) {
+                messageId = remoteMessage.getData().get("notification_android_id");
+            }
+            if (dedup != null && dedup.contains(messageId)) {
+                Log.d(TAG, "Ignoring duplicate message: " + messageId);
+                return;
+            }
+
             // Pass the message to the receiver manager so any registered receivers can decide to handle it
+            long dispatchSpan = FirebasePluginMessagingMetrics.start();
             boolean wasHandled = FirebasePluginMessageReceiverManager.onMessageReceived(remoteMessage);
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_RECEIVER_DISPATCH, dispatchSpan);
             if (wasHandled) {
                 Log.d(TAG, "Message was handled by a registered receiver");
+                if (dedup != null) {
+                    dedup.record(messageId);
+                }
 
                 // Don't process the message in this method.
                 return;
@@ -115,143 +143,37 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
             // TODO(developer): Handle FCM messages here.
             // Not getting messages here? See why this may be: https://goo.gl/39bRNJ
-            String messageType;
-            String title = null;
-            String titleLocKey = null;
-            String[] titleLocArgs = null;
-            String body = null;
-            String bodyLocKey = null;
-            String[] bodyLocArgs = null;
-            String bodyHtml = null;
-            String id = null;
-            String sound = null;
-            String vibrate = null;
-            String light = null;
-            String color = null;
-            String icon = null;
-            String channelId = null;
-            String visibility = null;
-            String priority = null;
-            String image = null;
-            String imageType = null;
-            boolean foregroundNotification = false;
-
-            Map<String, String> data = remoteMessage.getData();
-
-            if (remoteMessage.getNotification() != null) {
-                // Notification message payload
-                Log.i(TAG, "Received message: notification");
-                messageType = "notification";
-                id = remoteMessage.getMessageId();
-                RemoteMessage.Notification notification = remoteMessage.getNotification();
-                title = notification.getTitle();
-                titleLocKey = notification.getTitleLocalizationKey();
-                titleLocArgs = notification.getTitleLocalizationArgs();
-                body = notification.getBody();
-                bodyLocKey = notification.getBodyLocalizationKey();
-                bodyLocArgs = notification.getBodyLocalizationArgs();
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    channelId = notification.getChannelId();
-                }
-                sound = notification.getSound();
-                color = notification.getColor();
-                icon = notification.getIcon();
-                if (notification.getImageUrl() != null) {
-                    image = notification.getImageUrl().toString();
-                }
-                if (!TextUtils.isEmpty(titleLocKey)) {
-                    int titleId = getResources().getIdentifier(titleLocKey, "string", getPackageName());
-                    title = String.format(getResources().getString(titleId), (Object[])titleLocArgs);
-                }
-                if (!TextUtils.isEmpty(bodyLocKey)) {
-                    int bodyId = getResources().getIdentifier(bodyLocKey, "string", getPackageName());
-                    body = String.format(getResources().getString(bodyId), (Object[])bodyLocArgs);
-                }
-            }else{
-                Log.i(TAG, "Received message: data");
-                messageType = "data";
-            }
+            long parseSpan = FirebasePluginMessagingMetrics.start();
+            NotificationSpec spec = NotificationSpec.parse(this, remoteMessage);
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_PARSE, parseSpan);
+            Log.d(TAG, "From: " + spec.from + "; Id: " + spec.id + "; Title: " + spec.title + "; Body: " + spec.body);
 
-            if (data != null) {
-                // Data message payload
-                if(data.containsKey("notification_foreground")){
-                    foregroundNotification = true;
-                }
-                if(data.containsKey("notification_title")) title = data.get("notification_title");
-                if(data.containsKey("notification_body")) body = data.get("notification_body");
-                if(data.containsKey("notification_android_body_html")) bodyHtml = data.get("notification_android_body_html");
-                if(data.containsKey("notification_android_channel_id")) channelId = data.get("notification_android_channel_id");
-                if(data.containsKey("notification_android_id")) id = data.get("notification_android_id");
-                if(data.containsKey("notification_android_sound")) sound = data.get("notification_android_sound");
-                if(data.containsKey("notification_android_vibrate")) vibrate = data.get("notification_android_vibrate");
-                if(data.containsKey("notification_android_light")) light = data.get("notification_android_light"); //String containing hex ARGB color, miliseconds on, miliseconds off, example: '#FFFF00FF,1000,3000'
-                if(data.containsKey("notification_android_color")) color = data.get("notification_android_color");
-                if(data.containsKey("notification_android_icon")) icon = data.get("notification_android_icon");
-                if(data.containsKey("notification_android_visibility")) visibility = data.get("notification_android_visibility");
-                if(data.containsKey("notification_android_priority")) priority = data.get("notification_android_priority");
-                if(data.containsKey("notification_android_image")) image = data.get("notification_android_image");
-                if(data.containsKey("notification_android_image_type")) imageType = data.get("notification_android_image_type");
+            if (spec.hasContent()) {
+                sendMessage(spec);
             }
-
-            if (TextUtils.isEmpty(id)) {
-                Random rand = new Random();
-                int n = rand.nextInt(50) + 1;
-                id = Integer.toString(n);
-            }
-
-            Log.d(TAG, "From: " + remoteMessage.getFrom());
-            Log.d(TAG, "Id: " + id);
-            Log.d(TAG, "Title: " + title);
-            Log.d(TAG, "Body: " + body);
-            Log.d(TAG, "Sound: " + sound);
-            Log.d(TAG, "Vibrate: " + vibrate);
-            Log.d(TAG, "Light: " + light);
-            Log.d(TAG, "Color: " + color);
-            Log.d(TAG, "Icon: " + icon);
-            Log.d(TAG, "Channel Id: " + channelId);
-            Log.d(TAG, "Visibility: " + visibility);
-            Log.d(TAG, "Priority: " + priority);
-            Log.d(TAG, "Image: " + image);
-            Log.d(TAG, "image Type: " + imageType);
-
-
-            if (!TextUtils.isEmpty(body) || !TextUtils.isEmpty(title) || (data != null && !data.isEmpty())) {
-                boolean showNotification = (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback() || foregroundNotification) && (!TextUtils.isEmpty(body) || !TextUtils.isEmpty(title));
-                sendMessage(remoteMessage, data, messageType, id, title, body, bodyHtml, showNotification, sound, vibrate, light, color, icon, channelId, priority, visibility, image, imageType);
+            // Only once the message has been shown or queued, so a redelivery after a failure isn't ignored
+            if (dedup != null) {
+                dedup.record(messageId);
             }
         }catch (Exception e){
             FirebasePlugin.handleExceptionWithoutContext(e);
+        }finally{
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_RECEIVE, receiveSpan);
         }
     }
 
-    private void sendMessage(RemoteMessage remoteMessage, Map<String, String> data, String messageType, String id, String title, String body, String bodyHtml, boolean showNotification, String sound, String vibrate, String light, String color, String icon, String channelId, String priority, String visibility, String image, String imageType) {
-        Log.d(TAG, "sendMessage(): messageType="+messageType+"; showNotification="+showNotification+"; id="+id+"; title="+title+"; body="+body+"; sound="+sound+"; vibrate="+vibrate+"; light="+light+"; color="+color+"; icon="+icon+"; channel="+channelId+"; data="+data.toString());
-        Bundle bundle = new Bundle();
-        for (String key : data.keySet()) {
-            bundle.putString(key, data.get(key));
-        }
-        bundle.putString("messageType", messageType);
-        this.putKVInBundle("id", id, bundle);
-        this.putKVInBundle("title", title, bundle);
-        this.putKVInBundle("body", body, bundle);
-        this.putKVInBundle("body_html", bodyHtml, bundle);
-        this.putKVInBundle("sound", sound, bundle);
-        this.putKVInBundle("vibrate", vibrate, bundle);
-        this.putKVInBundle("light", light, bundle);
-        this.putKVInBundle("color", color, bundle);
-        this.putKVInBundle("icon", icon, bundle);
-        this.putKVInBundle("channel_id", channelId, bundle);
-        this.putKVInBundle("priority", priority, bundle);
-        this.putKVInBundle("visibility", visibility, bundle);
-        this.putKVInBundle("image", image, bundle);
-        this.putKVInBundle("image_type", imageType, bundle);
-        this.putKVInBundle("show_notification", String.valueOf(showNotification), bundle);
-        this.putKVInBundle("from", remoteMessage.getFrom(), bundle);
-        this.putKVInBundle("collapse_key", remoteMessage.getCollapseKey(), bundle);
-        this.putKVInBundle("sent_time", String.valueOf(remoteMessage.getSentTime()), bundle);
-        this.putKVInBundle("ttl", String.valueOf(remoteMessage.getTtl()), bundle);
-
-        if (showNotification) {
+    private void sendMessage(NotificationSpec spec) {
+        Log.d(TAG, "sendMessage(): " + spec.toString());
+        Bundle bundle = spec.toBundle();
+        String channelId = spec.channelId;
+
+        // Notifications with the same collapse key share a tag, so each replaces the last in place
+        String tag = spec.collapsible ? COLLAPSE_KEY_TAG_PREFIX + spec.collapseKey : spec.tag;
+        int notificationId = spec.collapsible ? 0 : spec.notificationId;
+        // Distinct per displayed notification, so FLAG_UPDATE_CURRENT can't replace the extras of another notification's intent
+        int requestCode = tag != null ? 31 * tag.hashCode() + notificationId : notificationId;
+
+        if (spec.showNotification) {
 
             Intent intent;
             PendingIntent pendingIntent;
@@ -260,11 +182,11 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             if(getApplicationInfo().targetSdkVersion >= Build.VERSION_CODES.S && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                 intent = new Intent(this, OnNotificationReceiverActivity.class);
                 intent.putExtras(bundle);
-                pendingIntent = PendingIntent.getActivity(this, id.hashCode(), intent, flag);
+                pendingIntent = PendingIntent.getActivity(this, requestCode, intent, flag);
             }else{
                 intent = new Intent(this, OnNotificationOpenReceiver.class);
                 intent.putExtras(bundle);
-                pendingIntent = PendingIntent.getBroadcast(this, id.hashCode(), intent, flag);
+                pendingIntent = PendingIntent.getBroadcast(this, requestCode, intent, flag);
             }
 
 
@@ -279,24 +201,26 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
             NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this, channelId);
             notificationBuilder
-                    .setContentTitle(title)
+                    .setContentTitle(spec.title)
                     .setAutoCancel(true)
                     .setContentIntent(pendingIntent);
 
-            if(bodyHtml != null) {
+            if(spec.bodyHtml != null) {
+                Spanned htmlBody = fromHtml(spec.body);
                 notificationBuilder
-                    .setContentText(fromHtml(body))
-                    .setStyle(new NotificationCompat.BigTextStyle().bigText(fromHtml(body)));
+                    .setContentText(htmlBody)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(htmlBody));
             }else{
                 notificationBuilder
-                    .setContentText(body)
-                    .setStyle(new NotificationCompat.BigTextStyle().bigText(body));
+                    .setContentText(spec.body)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(spec.body));
             }
 
 
             // On Android O+ the sound/lights/vibration are determined by the channel ID
             if(Build.VERSION.SDK_INT < Build.VERSION_CODES.O){
                 // Sound
+                String sound = spec.sound;
                 if (sound == null) {
                     Log.d(TAG, "Sound: none");
                 }else if (sound.equals("default")) {
@@ -309,62 +233,45 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
                 }
 
                 // Light
-                if (light != null) {
-                    try {
-                        String[] lightsComponents = color.replaceAll("\\s", "").split(",");
-                        if (lightsComponents.length == 3) {
-                            int lightArgb = Color.parseColor(lightsComponents[0]);
-                            int lightOnMs = Integer.parseInt(lightsComponents[1]);
-                            int lightOffMs = Integer.parseInt(lightsComponents[2]);
-                            notificationBuilder.setLights(lightArgb, lightOnMs, lightOffMs);
-                            Log.d(TAG, "Lights: color="+lightsComponents[0]+"; on(ms)="+lightsComponents[2]+"; off(ms)="+lightsComponents[3]);
-                        }
-
-                    } catch (Exception e) {}
+                if (spec.hasLight) {
+                    notificationBuilder.setLights(spec.lightArgb, spec.lightOnMs, spec.lightOffMs);
+                    Log.d(TAG, "Lights: "+spec.light);
                 }
 
                 // Vibrate
-                if (vibrate != null){
-                    try {
-                        String[] sVibrations = vibrate.replaceAll("\\s", "").split(",");
-                        long[] lVibrations = new long[sVibrations.length];
-                        int i=0;
-                        for(String sVibration: sVibrations){
-                            lVibrations[i] = Integer.parseInt(sVibration.trim());
-                            i++;
-                        }
-                        notificationBuilder.setVibrate(lVibrations);
-                        Log.d(TAG, "Vibrate: "+vibrate);
-                    } catch (Exception e) {
-                        Log.e(TAG, e.getMessage());
-                    }
+                if (spec.vibratePattern != null){
+                    notificationBuilder.setVibrate(spec.vibratePattern);
+                    Log.d(TAG, "Vibrate: "+spec.vibrate);
                 }
             }
 
 
             // Icon
-            int defaultSmallIconResID = getResources().getIdentifier(defaultSmallIconName, "drawable", getPackageName());
+            int defaultSmallIconResID = FirebasePluginResourceCache.getIdentifier(this, defaultSmallIconName, "drawable");
             int customSmallIconResID = 0;
+            String icon = spec.icon;
             if(icon != null){
-                customSmallIconResID = getResources().getIdentifier(icon, "drawable", getPackageName());
+                customSmallIconResID = FirebasePluginResourceCache.getIdentifier(this, icon, "drawable");
             }
 
+            int smallIconResID;
             if (customSmallIconResID != 0) {
-                notificationBuilder.setSmallIcon(customSmallIconResID);
+                smallIconResID = customSmallIconResID;
                 Log.d(TAG, "Small icon: custom="+icon);
             }else if (defaultSmallIconResID != 0) {
                 Log.d(TAG, "Small icon: default="+defaultSmallIconName);
-                notificationBuilder.setSmallIcon(defaultSmallIconResID);
+                smallIconResID = defaultSmallIconResID;
             } else {
                 Log.d(TAG, "Small icon: application");
-                notificationBuilder.setSmallIcon(getApplicationInfo().icon);
+                smallIconResID = getApplicationInfo().icon;
             }
+            notificationBuilder.setSmallIcon(smallIconResID);
 
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                int defaultLargeIconResID = getResources().getIdentifier(defaultLargeIconName, "drawable", getPackageName());
+                int defaultLargeIconResID = FirebasePluginResourceCache.getIdentifier(this, defaultLargeIconName, "drawable");
                 int customLargeIconResID = 0;
                 if(icon != null){
-                    customLargeIconResID = getResources().getIdentifier(icon+"_large", "drawable", getPackageName());
+                    customLargeIconResID = FirebasePluginResourceCache.getIdentifier(this, icon+"_large", "drawable");
                 }
 
                 int largeIconResID;
@@ -376,19 +283,19 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
                         Log.d(TAG, "Large icon: default="+defaultLargeIconName);
                         largeIconResID = defaultLargeIconResID;
                     }
-                    notificationBuilder.setLargeIcon(BitmapFactory.decodeResource(getApplicationContext().getResources(), largeIconResID));
+                    notificationBuilder.setLargeIcon(FirebasePluginResourceCache.getDrawableBitmap(getApplicationContext(), largeIconResID));
                 }
             }
 
             // Image
-            if (image != null) {
-                Log.d(TAG, "Large icon: image="+image);
-                Bitmap bitmap = getBitmapFromURL(image);
+            Bitmap bitmap = null;
+            if (spec.image != null) {
+                Log.d(TAG, "Large icon: image="+spec.image);
+                long imageSpan = FirebasePluginMessagingMetrics.start();
+                bitmap = getBitmapFromURL(spec.image, spec.imageType);
+                FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_IMAGE_FETCH, imageSpan);
                 if(bitmap != null) {
-                    if(imageTypeCircle.equalsIgnoreCase(imageType)) {
-                        bitmap = getCircleBitmap(bitmap);
-                    }
-                    else if(imageTypeBigPicture.equalsIgnoreCase(imageType)) {
+                    if(imageTypeBigPicture.equalsIgnoreCase(spec.imageType)) {
                         notificationBuilder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(bitmap).bigLargeIcon((Bitmap) null));
                     }
                     notificationBuilder.setLargeIcon(bitmap);
@@ -397,10 +304,10 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
             // Color
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                int defaultColor = getResources().getColor(getResources().getIdentifier("accent", "color", getPackageName()), null);
-                if(color != null){
-                    notificationBuilder.setColor(Color.parseColor(color));
-                    Log.d(TAG, "Color: custom="+color);
+                int defaultColor = FirebasePluginResourceCache.getColor(this, "accent", NotificationCompat.COLOR_DEFAULT);
+                if(spec.hasColor){
+                    notificationBuilder.setColor(spec.colorArgb);
+                    Log.d(TAG, "Color: custom="+spec.color);
                 }else{
                     Log.d(TAG, "Color: default");
                     notificationBuilder.setColor(defaultColor);
@@ -408,72 +315,41 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             }
 
             // Visibility
-            int iVisibility = NotificationCompat.VISIBILITY_PUBLIC;
-            if(visibility != null){
-                iVisibility = Integer.parseInt(visibility);
-            }
-            Log.d(TAG, "Visibility: " + iVisibility);
-            notificationBuilder.setVisibility(iVisibility);
+            Log.d(TAG, "Visibility: " + spec.visibilityValue);
+            notificationBuilder.setVisibility(spec.visibilityValue);
 
             // Priority
-            int iPriority = NotificationCompat.PRIORITY_MAX;
-            if(priority != null){
-                iPriority = Integer.parseInt(priority);
+            Log.d(TAG, "Priority: " + spec.priorityValue);
+            notificationBuilder.setPriority(spec.priorityValue);
+
+            // Group
+            FirebasePluginNotificationGrouper grouper = FirebasePluginNotificationGrouper.getInstance(this);
+            String groupKey = grouper.getGroupKey(spec, channelId);
+            if (groupKey != null) {
+                Log.d(TAG, "Group: " + groupKey);
+                notificationBuilder.setGroup(groupKey);
             }
-            Log.d(TAG, "Priority: " + iPriority);
-            notificationBuilder.setPriority(iPriority);
 
             // Build notification
+            long buildSpan = FirebasePluginMessagingMetrics.start();
             Notification notification = notificationBuilder.build();
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_BUILD, buildSpan);
 
-            // Display notification
-            NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            // Display notification, paced to stay within the OS post rate limit
             Log.d(TAG, "show notification: "+notification.toString());
-            notificationManager.notify(id.hashCode(), notification);
+            FirebasePluginNotificationScheduler.getInstance(this).notify(tag, notificationId, notification, spec.priorityValue, bitmap);
+            if (groupKey != null) {
+                grouper.onNotificationPosted(this, groupKey, channelId, smallIconResID, spec);
+            }
         }
         // Send to plugin
         FirebasePlugin.sendMessage(bundle, this.getApplicationContext());
     }
 
-    private Bitmap getCircleBitmap(Bitmap bitmap) {
-
-        if (bitmap == null) {
-            return null;
-        }
-
-        final Bitmap output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(output);
-        final int color = Color.RED;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        float cx = bitmap.getWidth() / 2;
-        float cy = bitmap.getHeight() / 2;
-        float radius = cx < cy ? cx : cy;
-        canvas.drawCircle(cx, cy, radius, paint);
-
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-
-        bitmap.recycle();
-
-        return output;
-    }
-
     private Spanned fromHtml(String source) {
         if (source != null)
             return Html.fromHtml(source);
         else
             return null;
     }
-
-    private void putKVInBundle(String k, String v, Bundle b){
-        if(v != null && !b.containsKey(k)){
-            b.putString(k, v);
-        }
-    }
 }
@@ -0,0 +1,139 @@
+package org.apache.cordova.firebase;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Groups notifications arriving in bursts under an auto-maintained InboxStyle summary notification.
+ *
+ * A message joins a group if it names one with notification_android_group, or - when the
+ * FIREBASE_MESSAGING_GROUP_WINDOW_MS plugin variable is set - automatically by channel.
+ * Once a group has two or more notifications within the window, a summary showing the count and latest lines is
+ * posted. Each group keeps its summary builder, so later messages only update the count and lines rather
+ * than building the summary from scratch.
+ */
+public class FirebasePluginNotificationGrouper {
+
+    static final String GROUP_TAG_PREFIX = "group:";
+    static final String AUTO_GROUP_PREFIX = "auto:";
+    static final int MAX_LINES = 5;
+    // How long a group named in the payload stays open when no window is configured
+    static final long DEFAULT_EXPLICIT_WINDOW_MS = 10 * 60 * 1000;
+    static final String DEFAULT_SUMMARY_FORMAT = "%d new messages";
+
+    private static FirebasePluginNotificationGrouper instance = null;
+
+    private final long windowMs;
+    private final String summaryFormat;
+    private final HashMap<String, Group> groups = new HashMap<String, Group>();
+
+    public static synchronized FirebasePluginNotificationGrouper getInstance(Context context) {
+        if (instance == null) {
+            long windowMs = 0;
+            try {
+                windowMs = Long.parseLong(FirebasePlugin.getPluginVariable(context, "FIREBASE_MESSAGING_GROUP_WINDOW_MS"));
+            } catch (NumberFormatException e) {
+                // Automatic grouping disabled
+            }
+            String summaryFormat = FirebasePluginResourceCache.getString(context, "notification_group_summary_format");
+            instance = new FirebasePluginNotificationGrouper(Math.max(0, windowMs), summaryFormat != null ? summaryFormat : DEFAULT_SUMMARY_FORMAT);
+        }
+        return instance;
+    }
+
+    FirebasePluginNotificationGrouper(long windowMs, String summaryFormat) {
+        this.windowMs = windowMs;
+        this.summaryFormat = summaryFormat;
+    }
+
+    /**
+     * @return the group key to set on the message's notification, or null if it shouldn't be grouped
+     */
+    public String getGroupKey(NotificationSpec spec, String channelId) {
+        if (!TextUtils.isEmpty(spec.group)) {
+            return spec.group;
+        }
+        if (windowMs > 0) {
+            return AUTO_GROUP_PREFIX + channelId;
+        }
+        return null;
+    }
+
+    /**
+     * Records a notification posted in the group and posts or updates the group's summary if it has become a burst.
+     */
+    public synchronized void onNotificationPosted(Context context, String groupKey, String channelId, int smallIcon, NotificationSpec spec) {
+        long now = SystemClock.elapsedRealtime();
+        long window = windowMs > 0 ? windowMs : DEFAULT_EXPLICIT_WINDOW_MS;
+        expire(now, window);
+
+        Group group = groups.get(groupKey);
+        if (group == null) {
+            group = new Group(new NotificationCompat.Builder(context, channelId)
+                    .setGroup(groupKey)
+                    .setGroupSummary(true)
+                    .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                    .setOnlyAlertOnce(true)
+                    .setAutoCancel(true));
+            groups.put(groupKey, group);
+        }
+        group.count++;
+        group.lastAt = now;
+        group.lines.addLast(TextUtils.isEmpty(spec.title) ? spec.body : TextUtils.isEmpty(spec.body) ? spec.title : spec.title + ": " + spec.body);
+        if (group.lines.size() > MAX_LINES) {
+            group.lines.removeFirst();
+        }
+        if (group.count < 2) {
+            return;
+        }
+
+        String title = String.format(summaryFormat, group.count);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        for (Iterator<CharSequence> it = group.lines.descendingIterator(); it.hasNext(); ) {
+            style.addLine(it.next());
+        }
+        Notification summary = group.summary
+                .setSmallIcon(smallIcon)
+                .setContentTitle(title)
+                .setContentText(group.lines.peekLast())
+                .setNumber(group.count)
+                .setWhen(System.currentTimeMillis())
+                .setStyle(style)
+                .build();
+        FirebasePluginNotificationScheduler.getInstance(context).notify(GROUP_TAG_PREFIX + groupKey, 0, summary, spec.priorityValue, null);
+    }
+
+    /**
+     * Forgets all groups, e.g. because all notifications are being cleared.
+     */
+    public synchronized void clear() {
+        groups.clear();
+    }
+
+    private void expire(long now, long window) {
+        for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastAt > window) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Group {
+        final NotificationCompat.Builder summary;
+        final ArrayDeque<CharSequence> lines = new ArrayDeque<CharSequence>(MAX_LINES + 1);
+        int count = 0;
+        long lastAt;
+
+        Group(NotificationCompat.Builder summary) {
+            this.summary = summary;
+        }
+    }
+}
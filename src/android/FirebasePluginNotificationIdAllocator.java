@@ -0,0 +1,43 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Allocates notification IDs from a monotonically increasing counter persisted across process restarts,
+ * so notifications without an explicit ID never overwrite each other.
+ * IDs are reserved from storage in blocks, so only one in every {@link #BLOCK_SIZE} allocations touches disk;
+ * IDs left unused in a block when the process dies are skipped rather than reused.
+ */
+public class FirebasePluginNotificationIdAllocator {
+
+    static final String KEY_NEXT_BLOCK = "notification_id_next_block";
+    static final int BLOCK_SIZE = 100;
+    // Leaves low IDs free for apps that post their own notifications with small fixed IDs
+    static final int FIRST_ID = 1000;
+
+    private static int next = 0;
+    private static int blockEnd = 0;
+
+    /**
+     * @return a notification ID not allocated before on this install (until the counter wraps after 2^31 IDs)
+     */
+    public static synchronized int next(Context context) {
+        if (next >= blockEnd) {
+            reserveBlock(context);
+        }
+        return next++;
+    }
+
+    private static void reserveBlock(Context context) {
+        SharedPreferences settings = context.getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE);
+        int start = settings.getInt(KEY_NEXT_BLOCK, FIRST_ID);
+        if (start < FIRST_ID || start > Integer.MAX_VALUE - BLOCK_SIZE) {
+            start = FIRST_ID;
+        }
+        // commit() rather than apply(): the reservation must be on disk before any ID from the block is posted
+        settings.edit().putInt(KEY_NEXT_BLOCK, start + BLOCK_SIZE).commit();
+        next = start;
+        blockEnd = start + BLOCK_SIZE;
+    }
+}
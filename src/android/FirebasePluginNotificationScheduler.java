@@ -0,0 +1,265 @@
+package org.apache.cordova.firebase;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Paces posts to NotificationManager so bursts stay within the rate the OS accepts from an app.
+ * NotificationManagerService silently drops an app's posts above 5 per second, so posts are metered by a
+ * token bucket refilled at that rate. Posts that can't go out immediately wait in a queue ordered by
+ * notification priority (then arrival) and are posted from a background thread as tokens become available.
+ * A later post for the same tag and ID replaces one still waiting rather than queuing a second update.
+ *
+ * Waiting posts are only held in memory. In the background the process may have been started just to handle the
+ * message and can be killed once the messaging service returns, so a post made from a background worker thread
+ * (the messaging service) blocks its caller, for at most BACKGROUND_WAIT_MS, until the queue has drained at the
+ * paced rate. The image of a waiting post is held in the bitmap pool until it has been posted.
+ */
+public class FirebasePluginNotificationScheduler {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final int RATE_PER_SECOND = 5;
+    static final int BUCKET_SIZE = 5;
+    static final int MAX_PENDING = 1000;
+    // Well within the time FCM allows onMessageReceived before the process may be stopped
+    static final long BACKGROUND_WAIT_MS = 5000;
+
+    private static final long TOKEN_INTERVAL_MS = 1000 / RATE_PER_SECOND;
+
+    private static FirebasePluginNotificationScheduler instance = null;
+
+    private final NotificationManager notificationManager;
+    private final FirebasePluginBitmapPool pool;
+    private final Handler handler;
+    private final TreeSet<Post> pending = new TreeSet<Post>(new Comparator<Post>() {
+        @Override
+        public int compare(Post a, Post b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    });
+    private final HashMap<String, Post> pendingByKey = new HashMap<String, Post>();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private double tokens = BUCKET_SIZE;
+    private long lastRefill = SystemClock.elapsedRealtime();
+    private long sequence = 0;
+    private boolean drainScheduled = false;
+
+    private long posted = 0;
+    private long deferred = 0;
+    private long coalesced = 0;
+    private long dropped = 0;
+    private long maxDelayMs = 0;
+    private long waitTimeouts = 0;
+
+    public static synchronized FirebasePluginNotificationScheduler getInstance(Context context) {
+        if (instance == null) {
+            HandlerThread thread = new HandlerThread("FirebasePluginNotificationScheduler");
+            thread.start();
+            instance = new FirebasePluginNotificationScheduler(
+                    (NotificationManager) context.getApplicationContext().getSystemService(Context.NOTIFICATION_SERVICE),
+                    FirebasePluginBitmapTransformer.getInstance().getPool(),
+                    new Handler(thread.getLooper()));
+        }
+        return instance;
+    }
+
+    FirebasePluginNotificationScheduler(NotificationManager notificationManager, FirebasePluginBitmapPool pool, Handler handler) {
+        this.notificationManager = notificationManager;
+        this.pool = pool;
+        this.handler = handler;
+    }
+
+    /**
+     * Posts the notification now if the rate allows, otherwise queues it. When called in the background from a
+     * thread other than the main thread, waits for the queue to drain before returning.
+     *
+     * @param priority the notification's NotificationCompat priority; higher priorities are posted first
+     * @param image a pooled bitmap the notification displays, kept out of the pool while the post waits; may be null
+     */
+    public synchronized void notify(String tag, int id, Notification notification, int priority, Bitmap image) {
+        enqueue(tag, id, notification, priority, image);
+        if (FirebasePlugin.inBackground() && Looper.myLooper() != Looper.getMainLooper()) {
+            awaitDrained(SystemClock.elapsedRealtime() + BACKGROUND_WAIT_MS);
+        }
+    }
+
+    private void enqueue(String tag, int id, Notification notification, int priority, Bitmap image) {
+        refill();
+        String key = tag + "#" + id;
+        Post waiting = pendingByKey.get(key);
+        if (waiting != null) {
+            // Only the latest content for a notification is worth posting
+            pending.remove(waiting);
+            pool.hold(image);
+            pool.unhold(waiting.image);
+            waiting.notification = notification;
+            waiting.image = image;
+            waiting.priority = Math.max(waiting.priority, priority);
+            pending.add(waiting);
+            coalesced++;
+            return;
+        }
+
+        if (pending.isEmpty() && tokens >= 1) {
+            tokens--;
+            post(tag, id, notification);
+            return;
+        }
+
+        if (pending.size() >= MAX_PENDING) {
+            Post lowest = pending.last();
+            if (lowest.priority >= priority) {
+                dropped++;
+                Log.w(TAG, "Notification post queue full, dropped notification " + key);
+                return;
+            }
+            pending.pollLast();
+            pendingByKey.remove(lowest.key());
+            pool.unhold(lowest.image);
+            dropped++;
+            Log.w(TAG, "Notification post queue full, dropped notification " + lowest.key());
+        }
+        Post post = new Post(tag, id, notification, image, priority, sequence++, SystemClock.elapsedRealtime());
+        pool.hold(image);
+        pending.add(post);
+        pendingByKey.put(key, post);
+        deferred++;
+        scheduleDrain();
+    }
+
+    /**
+     * Discards all posts still waiting, e.g. because all notifications are being cleared.
+     */
+    public synchronized void cancelAll() {
+        for (Post post : pending) {
+            pool.unhold(post.image);
+        }
+        pending.clear();
+        pendingByKey.clear();
+        notifyAll();
+    }
+
+    private void awaitDrained(long deadline) {
+        try {
+            long remaining;
+            while (!pending.isEmpty() && (remaining = deadline - SystemClock.elapsedRealtime()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.isEmpty()) {
+            waitTimeouts++;
+            Log.w(TAG, pending.size() + " notification posts still waiting after " + BACKGROUND_WAIT_MS + "ms in the background");
+        }
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("posted", posted);
+        metrics.put("deferred", deferred);
+        metrics.put("coalesced", coalesced);
+        metrics.put("dropped", dropped);
+        metrics.put("pending", pending.size());
+        metrics.put("maxDelayMs", maxDelayMs);
+        metrics.put("waitTimeouts", waitTimeouts);
+        return metrics;
+    }
+
+    private synchronized void drain() {
+        drainScheduled = false;
+        refill();
+        long now = SystemClock.elapsedRealtime();
+        while (tokens >= 1 && !pending.isEmpty()) {
+            tokens--;
+            postWaiting(pending.pollFirst(), now);
+        }
+        if (!pending.isEmpty()) {
+            scheduleDrain();
+        } else {
+            notifyAll();
+        }
+    }
+
+    private void postWaiting(Post waiting, long now) {
+        pendingByKey.remove(waiting.key());
+        maxDelayMs = Math.max(maxDelayMs, now - waiting.enqueuedAt);
+        post(waiting.tag, waiting.id, waiting.notification);
+        pool.unhold(waiting.image);
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * TOKEN_INTERVAL_MS);
+        handler.postDelayed(drain, wait);
+    }
+
+    private void refill() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(BUCKET_SIZE, tokens + (now - lastRefill) / (double) TOKEN_INTERVAL_MS);
+        lastRefill = now;
+    }
+
+    private void post(String tag, int id, Notification notification) {
+        long notifySpan = FirebasePluginMessagingMetrics.start();
+        try {
+            notificationManager.notify(tag, id, notification);
+            posted++;
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        } finally {
+            FirebasePluginMessagingMetrics.end(FirebasePluginMessagingMetrics.STAGE_NOTIFY, notifySpan);
+        }
+    }
+
+    private static class Post {
+        final String tag;
+        final int id;
+        final long sequence;
+        final long enqueuedAt;
+        Notification notification;
+        Bitmap image;
+        int priority;
+
+        Post(String tag, int id, Notification notification, Bitmap image, int priority, long sequence, long enqueuedAt) {
+            this.tag = tag;
+            this.id = id;
+            this.notification = notification;
+            this.image = image;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        String key() {
+            return tag + "#" + id;
+        }
+    }
+}
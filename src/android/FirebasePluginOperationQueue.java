@@ -0,0 +1,438 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Persists topic and registration operations until FCM has accepted them, so they survive the device being
+ * offline and the app being restarted. Operations run one at a time in the order they were requested, while the
+ * device has connectivity. A failed operation is retried with jittered exponential backoff, and immediately when
+ * connectivity returns.
+ *
+ * Contradictory requests are collapsed before they are sent: an unsubscribe cancels a waiting subscribe to the same
+ * topic (and vice versa) if the topic is already in the state the later request asks for, otherwise it replaces it.
+ * Either way the cancelled request completes with an error saying so, since it was never carried out.
+ *
+ * Connectivity and FCM are accessed through {@link ConnectivitySource} and {@link MessagingBackend}, so fakes
+ * can be substituted.
+ */
+public class FirebasePluginOperationQueue {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final int TYPE_SUBSCRIBE = 0;
+    public static final int TYPE_UNSUBSCRIBE = 1;
+    public static final int TYPE_UNREGISTER = 2;
+
+    static final String KEY_PENDING = "pending_operations";
+    static final int MAX_ATTEMPTS = 8;
+    static final long BASE_BACKOFF_MS = 2000;
+    static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+
+    public interface ConnectivitySource {
+        boolean isConnected();
+
+        /**
+         * @param listener run whenever the device regains connectivity
+         */
+        void setOnConnectedListener(Runnable listener);
+    }
+
+    public interface MessagingBackend {
+        Task<Void> subscribe(String topic);
+
+        Task<Void> unsubscribe(String topic);
+
+        Task<Void> deleteToken();
+
+        /**
+         * @return whether the device is known to be subscribed to the topic
+         */
+        boolean isSubscribed(String topic);
+    }
+
+    public interface Callback {
+        /**
+         * @param error null if the operation succeeded, otherwise why it failed or was cancelled by a later contradictory one
+         */
+        void onComplete(String error);
+    }
+
+    private static FirebasePluginOperationQueue instance = null;
+
+    private final SharedPreferences settings;
+    private final ConnectivitySource connectivity;
+    private final MessagingBackend backend;
+    private final Handler handler;
+    private final Executor handlerExecutor;
+    private final Random random = new Random();
+    private final ArrayList<Operation> pending = new ArrayList<Operation>();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private Operation inFlight = null;
+    private long nextAttemptAt = 0;
+
+    private long completed = 0;
+    private long retried = 0;
+    private long failed = 0;
+    private long collapsed = 0;
+
+    public static synchronized FirebasePluginOperationQueue getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            HandlerThread thread = new HandlerThread("FirebasePluginOperationQueue");
+            thread.start();
+            instance = new FirebasePluginOperationQueue(
+                    applicationContext.getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE),
+                    new AndroidConnectivitySource(applicationContext),
+                    new FirebaseMessagingBackend(applicationContext),
+                    new Handler(thread.getLooper()));
+        }
+        return instance;
+    }
+
+    FirebasePluginOperationQueue(SharedPreferences settings, ConnectivitySource connectivity, MessagingBackend backend, final Handler handler) {
+        this.settings = settings;
+        this.connectivity = connectivity;
+        this.backend = backend;
+        this.handler = handler;
+        this.handlerExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+        load();
+        connectivity.setOnConnectedListener(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FirebasePluginOperationQueue.this) {
+                    // Whatever failed while offline is likely to succeed now
+                    nextAttemptAt = 0;
+                }
+                handler.post(drain);
+            }
+        });
+        if (!pending.isEmpty()) {
+            Log.d(TAG, "Resuming " + pending.size() + " pending messaging operations");
+            handler.post(drain);
+        }
+    }
+
+    /**
+     * Queues an operation, collapsing it with a waiting one for the same topic.
+     *
+     * @param topic the topic, or null for {@link #TYPE_UNREGISTER}
+     * @param callback notified once the operation completes or fails permanently; may be null
+     */
+    public synchronized void enqueue(int type, String topic, Callback callback) {
+        Operation existing = findWaiting(type, topic);
+        if (existing != null) {
+            if (existing.type == type) {
+                existing.addCallback(callback);
+                return;
+            }
+            // Contradictory topic operations: the earlier one is moot either way, so its callers are told it didn't happen
+            pending.remove(existing);
+            collapsed++;
+            existing.complete("Cancelled by a later " + (type == TYPE_SUBSCRIBE ? "subscribe to" : "unsubscribe from") + " topic " + topic);
+            boolean subscribed = backend.isSubscribed(topic);
+            if (subscribed == (type == TYPE_SUBSCRIBE)) {
+                save();
+                if (callback != null) {
+                    callback.onComplete(null);
+                }
+                return;
+            }
+        }
+        Operation operation = new Operation(type, topic);
+        operation.addCallback(callback);
+        pending.add(operation);
+        save();
+        handler.post(drain);
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("pending", pending.size());
+        metrics.put("completed", completed);
+        metrics.put("retried", retried);
+        metrics.put("collapsed", collapsed);
+        metrics.put("failed", failed);
+        return metrics;
+    }
+
+    private Operation findWaiting(int type, String topic) {
+        for (Operation operation : pending) {
+            if (operation == inFlight) {
+                continue;
+            }
+            if (type == TYPE_UNREGISTER ? operation.type == TYPE_UNREGISTER : operation.type != TYPE_UNREGISTER && operation.topic.equals(topic)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    private void drain() {
+        final Operation operation;
+        synchronized (this) {
+            if (inFlight != null || pending.isEmpty()) {
+                return;
+            }
+            if (!connectivity.isConnected()) {
+                // The connectivity listener resumes draining
+                return;
+            }
+            long wait = nextAttemptAt - SystemClock.elapsedRealtime();
+            if (wait > 0) {
+                handler.removeCallbacks(drain);
+                handler.postDelayed(drain, wait);
+                return;
+            }
+            operation = pending.get(0);
+            inFlight = operation;
+        }
+
+        Task<Void> task;
+        try {
+            switch (operation.type) {
+                case TYPE_SUBSCRIBE:
+                    task = backend.subscribe(operation.topic);
+                    break;
+                case TYPE_UNSUBSCRIBE:
+                    task = backend.unsubscribe(operation.topic);
+                    break;
+                default:
+                    task = backend.deleteToken();
+                    break;
+            }
+        } catch (Exception e) {
+            onOperationComplete(operation, e);
+            return;
+        }
+        task.addOnCompleteListener(handlerExecutor, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> completedTask) {
+                Exception error = null;
+                if (!completedTask.isSuccessful()) {
+                    error = completedTask.getException() != null ? completedTask.getException() : new Exception("Task failed for unknown reason");
+                }
+                onOperationComplete(operation, error);
+            }
+        });
+    }
+
+    private synchronized void onOperationComplete(Operation operation, Exception error) {
+        inFlight = null;
+        if (error == null) {
+            pending.remove(operation);
+            save();
+            completed++;
+            nextAttemptAt = 0;
+            operation.complete(null);
+        } else if (!(error instanceof IllegalArgumentException) && operation.attempts < MAX_ATTEMPTS) {
+            // Failures while offline don't count towards the attempts; the connectivity listener retries them
+            if (connectivity.isConnected()) {
+                operation.attempts++;
+                nextAttemptAt = SystemClock.elapsedRealtime() + getBackoffMs(operation.attempts);
+            }
+            retried++;
+            Log.d(TAG, "Messaging operation failed, will retry: " + error.getMessage());
+        } else {
+            pending.remove(operation);
+            save();
+            failed++;
+            nextAttemptAt = 0;
+            Log.w(TAG, "Messaging operation failed permanently: " + error.getMessage());
+            operation.complete(error.getMessage() != null ? error.getMessage() : error.toString());
+        }
+        handler.post(drain);
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half the delay is fixed and half random,
+     * so retries from many devices don't arrive in lockstep.
+     */
+    private long getBackoffMs(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 20));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void load() {
+        String json = settings.getString(KEY_PENDING, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray operations = new JSONArray(json);
+            for (int i = 0; i < operations.length(); i++) {
+                JSONObject operation = operations.getJSONObject(i);
+                pending.add(new Operation(operation.getInt("type"), operation.optString("topic", null)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable pending messaging operations: " + e.getMessage());
+            settings.edit().remove(KEY_PENDING).apply();
+        }
+    }
+
+    private void save() {
+        if (pending.isEmpty()) {
+            settings.edit().remove(KEY_PENDING).apply();
+            return;
+        }
+        try {
+            JSONArray operations = new JSONArray();
+            for (Operation operation : pending) {
+                JSONObject json = new JSONObject();
+                json.put("type", operation.type);
+                if (operation.topic != null) {
+                    json.put("topic", operation.topic);
+                }
+                operations.put(json);
+            }
+            settings.edit().putString(KEY_PENDING, operations.toString()).apply();
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+    }
+
+    private static class Operation {
+        final int type;
+        final String topic;
+        // Callbacks only exist for operations requested in this process
+        final ArrayList<Callback> callbacks = new ArrayList<Callback>(1);
+        int attempts = 0;
+
+        Operation(int type, String topic) {
+            this.type = type;
+            this.topic = topic;
+        }
+
+        void addCallback(Callback callback) {
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+
+        void complete(String error) {
+            for (Iterator<Callback> it = callbacks.iterator(); it.hasNext(); ) {
+                Callback callback = it.next();
+                it.remove();
+                try {
+                    callback.onComplete(error);
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+        }
+    }
+
+    static class AndroidConnectivitySource implements ConnectivitySource {
+        private final ConnectivityManager connectivityManager;
+
+        AndroidConnectivitySource(Context context) {
+            connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+
+        @Override
+        public boolean isConnected() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                Network network = connectivityManager.getActiveNetwork();
+                NetworkCapabilities capabilities = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+                return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+            }
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            return networkInfo != null && networkInfo.isConnected();
+        }
+
+        @Override
+        public void setOnConnectedListener(final Runnable listener) {
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    listener.run();
+                }
+            });
+        }
+    }
+
+    static class FirebaseMessagingBackend implements MessagingBackend {
+        private final Context context;
+
+        FirebaseMessagingBackend(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public Task<Void> subscribe(final String topic) {
+            return FirebaseMessaging.getInstance().subscribeToTopic(topic).addOnSuccessListener(new OnSuccessListener<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    FirebasePluginTopicStore.getInstance(context).onConfirmed(topic, true);
+                }
+            });
+        }
+
+        @Override
+        public Task<Void> unsubscribe(final String topic) {
+            return FirebaseMessaging.getInstance().unsubscribeFromTopic(topic).addOnSuccessListener(new OnSuccessListener<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    FirebasePluginTopicStore.getInstance(context).onConfirmed(topic, false);
+                }
+            });
+        }
+
+        @Override
+        public Task<Void> deleteToken() {
+            // Only once deleted: a failed attempt leaves the token and its subscriptions valid
+            return FirebaseMessaging.getInstance().deleteToken().addOnSuccessListener(new OnSuccessListener<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    FirebasePluginTokenCache.invalidate(context);
+                    FirebasePluginTopicStore.getInstance(context).onTokenDeleted();
+                }
+            });
+        }
+
+        @Override
+        public boolean isSubscribed(String topic) {
+            return FirebasePluginTopicStore.getInstance(context).isSubscribed(topic);
+        }
+    }
+}
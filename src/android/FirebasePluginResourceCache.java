@@ -0,0 +1,118 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of resolved resource identifiers (including misses) and decoded drawable bitmaps,
+ * so Resources.getIdentifier() - a slow, reflective lookup - runs at most once per name and type.
+ */
+public class FirebasePluginResourceCache {
+
+    private static final ConcurrentHashMap<String, Integer> identifiers = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentHashMap<Integer, Bitmap> drawableBitmaps = new ConcurrentHashMap<Integer, Bitmap>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // Resources looked up for every displayed notification or at plugin startup
+    private static final String[][] WARM_RESOURCES = {
+            {FirebasePluginMessagingService.defaultSmallIconName, "drawable"},
+            {FirebasePluginMessagingService.defaultLargeIconName, "drawable"},
+            {"accent", "color"},
+            {"default_notification_channel_id", "string"},
+            {"default_notification_channel_name", "string"},
+            {"firebase_messaging_immediate_payload_delivery", "string"},
+            {"firebase_messaging_metrics_enabled", "string"},
+            {"firebase_messaging_journal_enabled", "string"},
+            {"firebase_messaging_journal_fsync", "string"},
+            {"firebase_messaging_queue_capacity", "string"},
+            {"firebase_messaging_queue_overflow", "string"},
+            {"firebase_messaging_dedup", "string"},
+            {"firebase_messaging_group_window_ms", "string"},
+            {"firebase_installation_token_refresh_window_seconds", "string"},
+            {"firebase_staged_init", "string"},
+    };
+
+    /**
+     * Resolves the common notification resources up front so the first message doesn't pay for them.
+     */
+    public static void warm(Context context) {
+        for (String[] resource : WARM_RESOURCES) {
+            getIdentifier(context, resource[0], resource[1]);
+        }
+    }
+
+    /**
+     * @return the resource identifier, or 0 if there is no such resource
+     */
+    public static int getIdentifier(Context context, String name, String type) {
+        String key = type + "/" + name;
+        Integer resId = identifiers.get(key);
+        if (resId != null) {
+            hits.incrementAndGet();
+            return resId;
+        }
+        misses.incrementAndGet();
+        resId = context.getResources().getIdentifier(name, type, context.getPackageName());
+        identifiers.put(key, resId);
+        return resId;
+    }
+
+    /**
+     * @return the string resource value, or null if there is no such resource
+     */
+    public static String getString(Context context, String name) {
+        int resId = getIdentifier(context, name, "string");
+        if (resId == 0) {
+            return null;
+        }
+        return context.getString(resId);
+    }
+
+    /**
+     * @return the drawable decoded as a bitmap, decoding it only the first time
+     */
+    public static Bitmap getDrawableBitmap(Context context, int resId) {
+        Bitmap bitmap = drawableBitmaps.get(resId);
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeResource(context.getResources(), resId);
+            if (bitmap != null) {
+                drawableBitmaps.put(resId, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the color resource value, or the fallback if there is no such resource
+     */
+    public static int getColor(Context context, String name, int fallback) {
+        int resId = getIdentifier(context, name, "color");
+        if (resId == 0) {
+            return fallback;
+        }
+        try {
+            return context.getResources().getColor(resId, null);
+        } catch (Resources.NotFoundException e) {
+            return fallback;
+        }
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("identifiers", identifiers.size());
+        metrics.put("bitmaps", drawableBitmaps.size());
+        return metrics;
+    }
+}
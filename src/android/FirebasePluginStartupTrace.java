@@ -0,0 +1,75 @@
+package org.apache.cordova.firebase;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when each stage of plugin startup was reached, relative to the start of the app process,
+ * so the effect of staged initialization on cold start can be measured on real devices.
+ * Only the first time each stage is reached is recorded.
+ */
+public class FirebasePluginStartupTrace {
+
+    public static final String STAGE_PLUGIN_INITIALIZE = "pluginInitialize";
+    public static final String STAGE_LAUNCH_NOTIFICATION_CAPTURED = "launchNotificationCaptured";
+    public static final String STAGE_PAGE_FINISHED = "pageFinished";
+    public static final String STAGE_FIREBASE_INITIALIZED = "firebaseInitialized";
+    public static final String STAGE_DEFAULT_CHANNEL_PROVISIONED = "defaultChannelProvisioned";
+    public static final String STAGE_INITIALIZED = "initialized";
+    public static final String STAGE_TOKEN_PREFETCHED = "tokenPrefetched";
+
+    private static final LinkedHashMap<String, Long> stages = new LinkedHashMap<String, Long>();
+    private static String mode = null;
+    private static String trigger = null;
+
+    public static synchronized void mark(String stage) {
+        if (!stages.containsKey(stage)) {
+            stages.put(stage, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * @param mode "eager" or "staged"
+     */
+    public static synchronized void setMode(String mode) {
+        FirebasePluginStartupTrace.mode = mode;
+    }
+
+    /**
+     * Records what caused the deferred stages to run, e.g. the page finishing loading or the first plugin call.
+     */
+    public static synchronized void setTrigger(String trigger) {
+        if (FirebasePluginStartupTrace.trigger == null) {
+            FirebasePluginStartupTrace.trigger = trigger;
+        }
+    }
+
+    public static synchronized JSONObject getTrace() throws JSONException {
+        JSONObject trace = new JSONObject();
+        trace.put("mode", mode);
+        trace.put("trigger", trigger);
+        long origin;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            origin = Process.getStartElapsedRealtime();
+            trace.put("origin", "processStart");
+        } else {
+            // Process start time isn't available, so times are relative to the plugin being loaded
+            Long first = stages.get(STAGE_PLUGIN_INITIALIZE);
+            origin = first != null ? first : SystemClock.elapsedRealtime();
+            trace.put("origin", STAGE_PLUGIN_INITIALIZE);
+        }
+        JSONObject stagesJson = new JSONObject();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            stagesJson.put(stage.getKey(), stage.getValue() - origin);
+        }
+        trace.put("stages", stagesJson);
+        return trace;
+    }
+}
@@ -0,0 +1,126 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+/**
+ * Caches the FCM registration token in memory and in the plugin's settings, so repeated getToken calls
+ * don't each make a Play services IPC and the token is available before Firebase has finished initializing.
+ * Concurrent requests while no token is cached share a single in-flight task.
+ * The cache is updated by onNewToken() and cleared by unregister(). Since a cached token could be stale
+ * (e.g. restored from a backup), it is revalidated in the background the first time it is served in each process.
+ */
+public class FirebasePluginTokenCache {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final String KEY_TOKEN = "fcm_token";
+
+    private static volatile String token = null;
+    private static boolean loaded = false;
+    private static boolean revalidated = false;
+    private static Task<String> inFlight = null;
+    // Incremented on invalidation so a request started beforehand can't cache a deleted token
+    private static int generation = 0;
+
+    /**
+     * @return a task resolving to the token, already complete if the token is cached
+     */
+    public static synchronized Task<String> getToken(final Context context) {
+        String cached = getCached(context);
+        if (cached != null) {
+            if (!revalidated) {
+                try {
+                    fetch(context);
+                    revalidated = true;
+                } catch (Exception e) {
+                    // Firebase isn't initialized yet; try again on the next request
+                    Log.d(TAG, "Unable to revalidate cached token yet: " + e.getMessage());
+                }
+            }
+            return Tasks.forResult(cached);
+        }
+        return fetch(context);
+    }
+
+    /**
+     * Records a token just issued by FCM.
+     */
+    public static synchronized void onNewToken(Context context, String newToken) {
+        generation++;
+        store(context, newToken);
+    }
+
+    /**
+     * Forgets the cached token, e.g. because it is being deleted.
+     */
+    public static synchronized void invalidate(Context context) {
+        generation++;
+        inFlight = null;
+        store(context, null);
+    }
+
+    private static String getCached(Context context) {
+        if (!loaded) {
+            token = getSettings(context).getString(KEY_TOKEN, null);
+            loaded = true;
+        }
+        return token;
+    }
+
+    private static Task<String> fetch(final Context context) {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        final int requestGeneration = generation;
+        final Task<String> task = FirebaseMessaging.getInstance().getToken();
+        inFlight = task;
+        task.addOnCompleteListener(new OnCompleteListener<String>() {
+            @Override
+            public void onComplete(@NonNull Task<String> completed) {
+                String previous;
+                String result;
+                synchronized (FirebasePluginTokenCache.class) {
+                    if (inFlight == completed) {
+                        inFlight = null;
+                    }
+                    if (!completed.isSuccessful() || completed.getResult() == null || requestGeneration != generation) {
+                        return;
+                    }
+                    previous = token;
+                    result = completed.getResult();
+                    store(context, result);
+                }
+                if (previous != null && !previous.equals(result)) {
+                    Log.d(TAG, "Cached token was stale");
+                    FirebasePlugin.sendToken(result);
+                }
+            }
+        });
+        return task;
+    }
+
+    private static void store(Context context, String newToken) {
+        token = newToken;
+        loaded = true;
+        SharedPreferences.Editor editor = getSettings(context).edit();
+        if (newToken != null) {
+            editor.putString(KEY_TOKEN, newToken);
+        } else {
+            editor.remove(KEY_TOKEN);
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences getSettings(Context context) {
+        return context.getApplicationContext().getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE);
+    }
+}
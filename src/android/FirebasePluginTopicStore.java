@@ -0,0 +1,286 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the set of topics the app wants to be subscribed to, and the set FCM has confirmed, in the plugin's settings.
+ * Reconciling issues only the subscribe/unsubscribe operations needed to get from the confirmed set to the desired one,
+ * through {@link FirebasePluginOperationQueue} so they're kept and retried while the device is offline,
+ * and reports all their outcomes together. A new registration token has no subscriptions,
+ * so the desired set is reconciled again when one is issued.
+ * If the desired set changes while a reconciliation is running, another runs once it completes.
+ *
+ * The queue calls back into the store with its own lock held, so the store never calls the queue while holding its lock.
+ */
+public class FirebasePluginTopicStore {
+
+    private static final String TAG = "FirebasePlugin";
+
+    static final String KEY_DESIRED = "topics_desired";
+    static final String KEY_CONFIRMED = "topics_confirmed";
+
+    public interface Callback {
+        void onComplete(Reconciliation result);
+    }
+
+    private static FirebasePluginTopicStore instance = null;
+
+    private final SharedPreferences settings;
+    private final FirebasePluginOperationQueue queue;
+    private final HashSet<String> desired;
+    private final HashSet<String> confirmed;
+    private ArrayList<Callback> waiting = new ArrayList<Callback>();
+    private boolean reconciling = false;
+    private boolean dirty = false;
+
+    public static synchronized FirebasePluginTopicStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginTopicStore(
+                    context.getApplicationContext().getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE),
+                    FirebasePluginOperationQueue.getInstance(context));
+        }
+        return instance;
+    }
+
+    FirebasePluginTopicStore(SharedPreferences settings, FirebasePluginOperationQueue queue) {
+        this.settings = settings;
+        this.queue = queue;
+        // The returned sets mustn't be modified, so copy them
+        this.desired = new HashSet<String>(settings.getStringSet(KEY_DESIRED, new HashSet<String>()));
+        this.confirmed = new HashSet<String>(settings.getStringSet(KEY_CONFIRMED, new HashSet<String>()));
+    }
+
+    /**
+     * Replaces the desired topic set and subscribes/unsubscribes the difference from the confirmed set.
+     */
+    public void setTopics(Collection<String> topics, Callback callback) {
+        Reconciliation pass;
+        synchronized (this) {
+            desired.clear();
+            desired.addAll(topics);
+            settings.edit().putStringSet(KEY_DESIRED, new HashSet<String>(desired)).apply();
+            pass = reconcile(callback);
+        }
+        run(pass);
+    }
+
+    /**
+     * @return the topics this device is subscribed to as far as FCM has confirmed
+     */
+    public synchronized Set<String> getTopics() {
+        return new TreeSet<String>(confirmed);
+    }
+
+    public synchronized boolean isSubscribed(String topic) {
+        return confirmed.contains(topic);
+    }
+
+    /**
+     * Adds a topic to or removes it from the desired set, e.g. because a single subscribe() or unsubscribe() was requested.
+     */
+    public synchronized void setDesired(String topic, boolean subscribed) {
+        if (subscribed) {
+            desired.add(topic);
+        } else {
+            desired.remove(topic);
+        }
+        save();
+    }
+
+    /**
+     * Records that FCM has accepted a subscribe or unsubscribe. If the desired set has changed since it was requested,
+     * e.g. setTopics() dropped a topic whose subscribe was still queued, the difference is reconciled.
+     */
+    public void onConfirmed(String topic, boolean subscribed) {
+        Reconciliation pass = null;
+        synchronized (this) {
+            if (subscribed) {
+                confirmed.add(topic);
+            } else {
+                confirmed.remove(topic);
+            }
+            save();
+            if (desired.contains(topic) != subscribed) {
+                pass = reconcile(null);
+            }
+        }
+        run(pass);
+    }
+
+    /**
+     * Subscribes a newly issued token to the desired topics.
+     */
+    public void onNewToken() {
+        Reconciliation pass = null;
+        synchronized (this) {
+            confirmed.clear();
+            settings.edit().remove(KEY_CONFIRMED).apply();
+            if (!desired.isEmpty()) {
+                pass = reconcile(null);
+            }
+        }
+        run(pass);
+    }
+
+    /**
+     * Forgets the confirmed subscriptions, e.g. because the token has been deleted. The desired topics are kept
+     * and subscribed again when a new token is issued.
+     */
+    public synchronized void onTokenDeleted() {
+        confirmed.clear();
+        settings.edit().remove(KEY_CONFIRMED).apply();
+    }
+
+    /**
+     * @return a pass to be run once the lock is released, or null if none is to be started now
+     */
+    private Reconciliation reconcile(Callback callback) {
+        if (callback != null) {
+            waiting.add(callback);
+        }
+        if (reconciling) {
+            dirty = true;
+            return null;
+        }
+        return start();
+    }
+
+    private Reconciliation start() {
+        reconciling = true;
+        dirty = false;
+        Reconciliation pass = new Reconciliation(waiting);
+        waiting = new ArrayList<Callback>();
+        for (String topic : desired) {
+            if (!confirmed.contains(topic)) {
+                pass.operations.add(new Operation(topic, true));
+            }
+        }
+        for (String topic : confirmed) {
+            if (!desired.contains(topic)) {
+                pass.operations.add(new Operation(topic, false));
+            }
+        }
+        pass.remaining = pass.operations.size();
+        return pass;
+    }
+
+    /**
+     * Queues a pass's operations. Must be called without the lock held.
+     */
+    private void run(Reconciliation pass) {
+        while (pass != null && pass.operations.isEmpty()) {
+            synchronized (this) {
+                pass = finish(pass);
+            }
+        }
+        if (pass == null) {
+            return;
+        }
+        Log.d(TAG, "Reconciling topics: " + pass.operations.size() + " operations");
+        final Reconciliation queued = pass;
+        for (final Operation operation : pass.operations) {
+            queue.enqueue(operation.subscribe ? FirebasePluginOperationQueue.TYPE_SUBSCRIBE : FirebasePluginOperationQueue.TYPE_UNSUBSCRIBE,
+                    operation.topic, new FirebasePluginOperationQueue.Callback() {
+                        @Override
+                        public void onComplete(String error) {
+                            onOperationComplete(queued, operation, error);
+                        }
+                    });
+        }
+    }
+
+    private void onOperationComplete(Reconciliation pass, Operation operation, String error) {
+        Reconciliation next;
+        synchronized (this) {
+            if (error != null) {
+                pass.failed.put(operation.topic, error);
+            } else if (operation.subscribe) {
+                // Also recorded by onConfirmed(), but that may not have run yet
+                confirmed.add(operation.topic);
+                pass.subscribed.add(operation.topic);
+            } else {
+                confirmed.remove(operation.topic);
+                pass.unsubscribed.add(operation.topic);
+            }
+            if (--pass.remaining > 0) {
+                return;
+            }
+            save();
+            next = finish(pass);
+        }
+        run(next);
+    }
+
+    /**
+     * @return the next pass to be run, if the desired set changed while this one was running
+     */
+    private Reconciliation finish(Reconciliation pass) {
+        reconciling = false;
+        for (Callback callback : pass.callbacks) {
+            try {
+                callback.onComplete(pass);
+            } catch (Exception e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+        }
+        return dirty ? start() : null;
+    }
+
+    private void save() {
+        settings.edit()
+                .putStringSet(KEY_DESIRED, new HashSet<String>(desired))
+                .putStringSet(KEY_CONFIRMED, new HashSet<String>(confirmed))
+                .apply();
+    }
+
+    private static class Operation {
+        final String topic;
+        final boolean subscribe;
+
+        Operation(String topic, boolean subscribe) {
+            this.topic = topic;
+            this.subscribe = subscribe;
+        }
+    }
+
+    /**
+     * The outcome of one pass over the difference between the desired and confirmed topics.
+     */
+    public static class Reconciliation {
+        final ArrayList<Callback> callbacks;
+        final ArrayList<Operation> operations = new ArrayList<Operation>();
+        final ArrayList<String> subscribed = new ArrayList<String>();
+        final ArrayList<String> unsubscribed = new ArrayList<String>();
+        final LinkedHashMap<String, String> failed = new LinkedHashMap<String, String>();
+        int remaining = 0;
+
+        Reconciliation(ArrayList<Callback> callbacks) {
+            this.callbacks = callbacks;
+        }
+
+        public boolean hasFailures() {
+            return !failed.isEmpty();
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("subscribed", new JSONArray(subscribed));
+            json.put("unsubscribed", new JSONArray(unsubscribed));
+            json.put("failed", new JSONObject(failed));
+            return json;
+        }
+    }
+}
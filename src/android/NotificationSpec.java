@@ -0,0 +1,421 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, fully parsed description of a received message and the notification to display for it.
+ * Built in a single pass over the RemoteMessage data map and consumed both by the notification builder
+ * in FirebasePluginMessagingService and, via {@link #toBundle()}, by the JS dispatch in FirebasePlugin.
+ */
+public final class NotificationSpec {
+
+    private static final String TAG = "FirebasePlugin";
+
+    // Sent by some server SDKs to explicitly opt a message out of collapsing
+    static final String NON_COLLAPSIBLE_KEY = "do_not_collapse";
+
+    private static final int KEY_FOREGROUND = 1;
+    private static final int KEY_TITLE = 2;
+    private static final int KEY_BODY = 3;
+    private static final int KEY_BODY_HTML = 4;
+    private static final int KEY_CHANNEL_ID = 5;
+    private static final int KEY_ID = 6;
+    private static final int KEY_SOUND = 7;
+    private static final int KEY_VIBRATE = 8;
+    private static final int KEY_LIGHT = 9;
+    private static final int KEY_COLOR = 10;
+    private static final int KEY_ICON = 11;
+    private static final int KEY_VISIBILITY = 12;
+    private static final int KEY_PRIORITY = 13;
+    private static final int KEY_IMAGE = 14;
+    private static final int KEY_IMAGE_TYPE = 15;
+    private static final int KEY_TAG = 16;
+    private static final int KEY_GROUP = 17;
+
+    private static final Map<String, Integer> DATA_KEYS = new HashMap<String, Integer>();
+    static {
+        DATA_KEYS.put("notification_foreground", KEY_FOREGROUND);
+        DATA_KEYS.put("notification_title", KEY_TITLE);
+        DATA_KEYS.put("notification_body", KEY_BODY);
+        DATA_KEYS.put("notification_android_body_html", KEY_BODY_HTML);
+        DATA_KEYS.put("notification_android_channel_id", KEY_CHANNEL_ID);
+        DATA_KEYS.put("notification_android_id", KEY_ID);
+        DATA_KEYS.put("notification_android_sound", KEY_SOUND);
+        DATA_KEYS.put("notification_android_vibrate", KEY_VIBRATE);
+        DATA_KEYS.put("notification_android_light", KEY_LIGHT);
+        DATA_KEYS.put("notification_android_color", KEY_COLOR);
+        DATA_KEYS.put("notification_android_icon", KEY_ICON);
+        DATA_KEYS.put("notification_android_visibility", KEY_VISIBILITY);
+        DATA_KEYS.put("notification_android_priority", KEY_PRIORITY);
+        DATA_KEYS.put("notification_android_image", KEY_IMAGE);
+        DATA_KEYS.put("notification_android_image_type", KEY_IMAGE_TYPE);
+        DATA_KEYS.put("notification_android_tag", KEY_TAG);
+        DATA_KEYS.put("notification_android_group", KEY_GROUP);
+    }
+
+    public final Map<String, String> data;
+    public final String messageType;
+    public final String id;
+    public final int notificationId;
+    public final String tag;
+    public final String group;
+    public final String title;
+    public final String body;
+    public final String bodyHtml;
+    public final String sound;
+    public final String vibrate;
+    public final long[] vibratePattern;
+    public final String light;
+    public final boolean hasLight;
+    public final int lightArgb;
+    public final int lightOnMs;
+    public final int lightOffMs;
+    public final String color;
+    public final boolean hasColor;
+    public final int colorArgb;
+    public final String icon;
+    public final String channelId;
+    public final String visibility;
+    public final int visibilityValue;
+    public final String priority;
+    public final int priorityValue;
+    public final String image;
+    public final String imageType;
+    public final boolean foregroundNotification;
+    public final boolean showNotification;
+    public final String from;
+    public final String collapseKey;
+    public final boolean collapsible;
+    public final long sentTime;
+    public final int ttl;
+
+    private Bundle bundle;
+
+    private NotificationSpec(Parser parser) {
+        // A copy, so the spec stays immutable and doesn't keep the RemoteMessage's map reachable
+        this.data = parser.data != null ? Collections.unmodifiableMap(new HashMap<String, String>(parser.data)) : null;
+        this.messageType = parser.messageType;
+        this.id = parser.id;
+        this.notificationId = parser.notificationId;
+        this.tag = parser.tag;
+        this.group = parser.group;
+        this.title = parser.title;
+        this.body = parser.body;
+        this.bodyHtml = parser.bodyHtml;
+        this.sound = parser.sound;
+        this.vibrate = parser.vibrate;
+        this.vibratePattern = parser.vibratePattern;
+        this.light = parser.light;
+        this.hasLight = parser.hasLight;
+        this.lightArgb = parser.lightArgb;
+        this.lightOnMs = parser.lightOnMs;
+        this.lightOffMs = parser.lightOffMs;
+        this.color = parser.color;
+        this.hasColor = parser.hasColor;
+        this.colorArgb = parser.colorArgb;
+        this.icon = parser.icon;
+        this.channelId = parser.channelId;
+        this.visibility = parser.visibility;
+        this.visibilityValue = parser.visibilityValue;
+        this.priority = parser.priority;
+        this.priorityValue = parser.priorityValue;
+        this.image = parser.image;
+        this.imageType = parser.imageType;
+        this.foregroundNotification = parser.foregroundNotification;
+        this.showNotification = parser.showNotification;
+        this.from = parser.from;
+        this.collapseKey = parser.collapseKey;
+        this.collapsible = isCollapsible(parser.collapseKey, parser.context.getPackageName());
+        this.sentTime = parser.sentTime;
+        this.ttl = parser.ttl;
+    }
+
+    /**
+     * FCM sets the collapse key to the app's package name for messages sent without one,
+     * so only an explicitly set key means later messages supersede earlier ones.
+     *
+     * @return true if messages with this collapse key replace each other
+     */
+    public static boolean isCollapsible(String collapseKey, String packageName) {
+        return collapseKey != null && !collapseKey.isEmpty() && !collapseKey.equals(packageName) && !NON_COLLAPSIBLE_KEY.equals(collapseKey);
+    }
+
+    /**
+     * @return true if the message carries anything worth delivering
+     */
+    public boolean hasContent() {
+        return !TextUtils.isEmpty(body) || !TextUtils.isEmpty(title) || (data != null && !data.isEmpty());
+    }
+
+    /**
+     * Builds the message bundle passed to FirebasePlugin.sendMessage().
+     * Data keys are copied first so that they take precedence over the parsed fields of the same name.
+     */
+    public synchronized Bundle toBundle() {
+        if (bundle != null) {
+            return bundle;
+        }
+        Bundle b = new Bundle();
+        if (data != null) {
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                b.putString(entry.getKey(), entry.getValue());
+            }
+        }
+        b.putString("messageType", messageType);
+        putIfAbsent(b, "id", id);
+        putIfAbsent(b, "title", title);
+        putIfAbsent(b, "body", body);
+        putIfAbsent(b, "body_html", bodyHtml);
+        putIfAbsent(b, "sound", sound);
+        putIfAbsent(b, "vibrate", vibrate);
+        putIfAbsent(b, "light", light);
+        putIfAbsent(b, "color", color);
+        putIfAbsent(b, "icon", icon);
+        putIfAbsent(b, "channel_id", channelId);
+        putIfAbsent(b, "priority", priority);
+        putIfAbsent(b, "visibility", visibility);
+        putIfAbsent(b, "image", image);
+        putIfAbsent(b, "image_type", imageType);
+        putIfAbsent(b, "show_notification", String.valueOf(showNotification));
+        putIfAbsent(b, "from", from);
+        putIfAbsent(b, "collapse_key", collapseKey);
+        putIfAbsent(b, "sent_time", String.valueOf(sentTime));
+        putIfAbsent(b, "ttl", String.valueOf(ttl));
+        bundle = b;
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "messageType=" + messageType + "; showNotification=" + showNotification + "; id=" + id + "; notificationId=" + notificationId + "; tag=" + tag + "; title=" + title + "; body=" + body
+                + "; sound=" + sound + "; vibrate=" + vibrate + "; light=" + light + "; color=" + color + "; icon=" + icon
+                + "; channel=" + channelId + "; visibility=" + visibility + "; priority=" + priority + "; image=" + image + "; imageType=" + imageType
+                + "; from=" + from + "; data=" + data;
+    }
+
+    private static void putIfAbsent(Bundle b, String key, String value) {
+        if (value != null && !b.containsKey(key)) {
+            b.putString(key, value);
+        }
+    }
+
+    /**
+     * Parses the RemoteMessage into a NotificationSpec, walking its data map once.
+     */
+    public static NotificationSpec parse(Context context, RemoteMessage remoteMessage) {
+        return new Parser(context, remoteMessage).parse();
+    }
+
+    private static final class Parser {
+        private final Context context;
+        private final RemoteMessage remoteMessage;
+
+        Map<String, String> data;
+        String messageType;
+        String id;
+        boolean explicitId;
+        int notificationId;
+        String tag;
+        String group;
+        String title;
+        String body;
+        String bodyHtml;
+        String sound;
+        String vibrate;
+        long[] vibratePattern;
+        String light;
+        boolean hasLight;
+        int lightArgb;
+        int lightOnMs;
+        int lightOffMs;
+        String color;
+        boolean hasColor;
+        int colorArgb;
+        String icon;
+        String channelId;
+        String visibility;
+        int visibilityValue = NotificationCompat.VISIBILITY_PUBLIC;
+        String priority;
+        int priorityValue = NotificationCompat.PRIORITY_MAX;
+        String image;
+        String imageType;
+        boolean foregroundNotification;
+        boolean showNotification;
+        String from;
+        String collapseKey;
+        long sentTime;
+        int ttl;
+
+        Parser(Context context, RemoteMessage remoteMessage) {
+            this.context = context;
+            this.remoteMessage = remoteMessage;
+        }
+
+        NotificationSpec parse() {
+            data = remoteMessage.getData();
+            from = remoteMessage.getFrom();
+            collapseKey = remoteMessage.getCollapseKey();
+            sentTime = remoteMessage.getSentTime();
+            ttl = remoteMessage.getTtl();
+
+            RemoteMessage.Notification notification = remoteMessage.getNotification();
+            if (notification != null) {
+                // Notification message payload
+                Log.i(TAG, "Received message: notification");
+                messageType = "notification";
+                id = remoteMessage.getMessageId();
+                title = notification.getTitle();
+                body = notification.getBody();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    channelId = notification.getChannelId();
+                }
+                sound = notification.getSound();
+                color = notification.getColor();
+                icon = notification.getIcon();
+                if (notification.getImageUrl() != null) {
+                    image = notification.getImageUrl().toString();
+                }
+                String titleLocKey = notification.getTitleLocalizationKey();
+                if (!TextUtils.isEmpty(titleLocKey)) {
+                    title = localize(titleLocKey, notification.getTitleLocalizationArgs());
+                }
+                String bodyLocKey = notification.getBodyLocalizationKey();
+                if (!TextUtils.isEmpty(bodyLocKey)) {
+                    body = localize(bodyLocKey, notification.getBodyLocalizationArgs());
+                }
+            } else {
+                Log.i(TAG, "Received message: data");
+                messageType = "data";
+            }
+
+            if (data != null) {
+                // Data message payload
+                for (Map.Entry<String, String> entry : data.entrySet()) {
+                    Integer key = DATA_KEYS.get(entry.getKey());
+                    if (key == null) {
+                        continue;
+                    }
+                    String value = entry.getValue();
+                    switch (key) {
+                        case KEY_FOREGROUND: foregroundNotification = true; break;
+                        case KEY_TITLE: title = value; break;
+                        case KEY_BODY: body = value; break;
+                        case KEY_BODY_HTML: bodyHtml = value; break;
+                        case KEY_CHANNEL_ID: channelId = value; break;
+                        case KEY_ID: id = value; explicitId = true; break;
+                        case KEY_SOUND: sound = value; break;
+                        case KEY_VIBRATE: vibrate = value; break;
+                        case KEY_LIGHT: light = value; break; // String containing hex ARGB color, milliseconds on, milliseconds off, example: '#FFFF00FF,1000,3000'
+                        case KEY_COLOR: color = value; break;
+                        case KEY_ICON: icon = value; break;
+                        case KEY_VISIBILITY: visibility = value; break;
+                        case KEY_PRIORITY: priority = value; break;
+                        case KEY_IMAGE: image = value; break;
+                        case KEY_IMAGE_TYPE: imageType = value; break;
+                        case KEY_TAG: tag = value; break;
+                        case KEY_GROUP: group = value; break;
+                    }
+                }
+            }
+
+            parseVibrate();
+            parseLight();
+            parseColor();
+            visibilityValue = parseInt(visibility, visibilityValue, "visibility");
+            priorityValue = parseInt(priority, priorityValue, "priority");
+
+            showNotification = (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback() || foregroundNotification)
+                    && (!TextUtils.isEmpty(body) || !TextUtils.isEmpty(title));
+
+            if (TextUtils.isEmpty(id)) {
+                id = remoteMessage.getMessageId();
+            }
+            if (explicitId && !TextUtils.isEmpty(id)) {
+                // Lets the sender replace a notification by reusing its ID
+                notificationId = id.hashCode();
+            } else if (showNotification || TextUtils.isEmpty(id)) {
+                notificationId = FirebasePluginNotificationIdAllocator.next(context);
+                if (TextUtils.isEmpty(id)) {
+                    id = Integer.toString(notificationId);
+                }
+            }
+
+            return new NotificationSpec(this);
+        }
+
+        private String localize(String key, String[] args) {
+            int resId = FirebasePluginResourceCache.getIdentifier(context, key, "string");
+            return String.format(context.getResources().getString(resId), (Object[]) args);
+        }
+
+        private void parseVibrate() {
+            if (vibrate == null) {
+                return;
+            }
+            try {
+                String[] sVibrations = vibrate.replaceAll("\\s", "").split(",");
+                long[] lVibrations = new long[sVibrations.length];
+                for (int i = 0; i < sVibrations.length; i++) {
+                    lVibrations[i] = Long.parseLong(sVibrations[i]);
+                }
+                vibratePattern = lVibrations;
+            } catch (Exception e) {
+                Log.e(TAG, "Invalid vibrate pattern: " + vibrate);
+            }
+        }
+
+        private void parseLight() {
+            if (light == null) {
+                return;
+            }
+            try {
+                String[] lightsComponents = light.replaceAll("\\s", "").split(",");
+                if (lightsComponents.length == 3) {
+                    lightArgb = Color.parseColor(lightsComponents[0]);
+                    lightOnMs = Integer.parseInt(lightsComponents[1]);
+                    lightOffMs = Integer.parseInt(lightsComponents[2]);
+                    hasLight = true;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Invalid light: " + light);
+            }
+        }
+
+        private void parseColor() {
+            if (color == null) {
+                return;
+            }
+            try {
+                colorArgb = Color.parseColor(color);
+                hasColor = true;
+            } catch (Exception e) {
+                Log.e(TAG, "Invalid color: " + color);
+            }
+        }
+
+        private int parseInt(String value, int defaultValue, String name) {
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Invalid " + name + ": " + value);
+                return defaultValue;
+            }
+        }
+    }
+}
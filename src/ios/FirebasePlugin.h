@@ -20,9 +20,12 @@
 - (void)getBadgeNumber:(CDVInvokedUrlCommand*)command;
 - (void)subscribe:(CDVInvokedUrlCommand*)command;
 - (void)unsubscribe:(CDVInvokedUrlCommand*)command;
+- (void)setTopics:(CDVInvokedUrlCommand*)command;
+- (void)listTopics:(CDVInvokedUrlCommand*)command;
 - (void)unregister:(CDVInvokedUrlCommand*)command;
 - (void)onOpenSettings:(CDVInvokedUrlCommand*)command;
 - (void)onMessageReceived:(CDVInvokedUrlCommand*)command;
+- (void)onMessagesReceivedBatch:(CDVInvokedUrlCommand*)command;
 - (void)onTokenRefresh:(CDVInvokedUrlCommand*)command;
 - (void)onApnsTokenReceived:(CDVInvokedUrlCommand *)command;
 - (void)sendOpenNotificationSettings;
@@ -46,9 +49,12 @@
 - (void)executeGlobalJavascript: (NSString*)jsString;
 
 - (void)createChannel:(CDVInvokedUrlCommand *)command;
+- (void)createChannels:(CDVInvokedUrlCommand *)command;
 - (void)setDefaultChannel:(CDVInvokedUrlCommand *)command;
 - (void)deleteChannel:(CDVInvokedUrlCommand *)command;
 - (void)listChannels:(CDVInvokedUrlCommand *)command;
+- (void)getMessagingMetrics:(CDVInvokedUrlCommand *)command;
+- (void)getStartupTrace:(CDVInvokedUrlCommand *)command;
 
 @property (nonatomic, readonly) BOOL isFCMEnabled;
 
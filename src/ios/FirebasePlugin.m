@@ -491,6 +491,11 @@ static NSMutableArray* pendingGlobalJS = nil;
     [self sendPendingNotifications];
 }
 
+// Batching is not implemented on iOS: messages are delivered individually and wrapped in an array by the JS API
+- (void)onMessagesReceivedBatch:(CDVInvokedUrlCommand *)command {
+    [self onMessageReceived:command];
+}
+
 - (void)sendPendingNotifications {
     if (self.notificationCallbackId != nil && self.notificationStack != nil && [self.notificationStack count]) {
         @try {
@@ -850,6 +855,13 @@ static NSMutableArray* pendingGlobalJS = nil;
     }];
 }
 
+- (void)createChannels:(CDVInvokedUrlCommand *)command {
+    [self.commandDelegate runInBackground:^{
+        CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+        [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+    }];
+}
+
 - (void)setDefaultChannel:(CDVInvokedUrlCommand *)command {
     [self.commandDelegate runInBackground:^{
         CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
@@ -871,5 +883,33 @@ static NSMutableArray* pendingGlobalJS = nil;
     }];
 }
 
+- (void)setTopics:(CDVInvokedUrlCommand *)command {
+    [self.commandDelegate runInBackground:^{
+        CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_ERROR messageAsString:@"setTopics is only supported on Android"];
+        [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+    }];
+}
+
+- (void)listTopics:(CDVInvokedUrlCommand *)command {
+    [self.commandDelegate runInBackground:^{
+        CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_ERROR messageAsString:@"listTopics is only supported on Android"];
+        [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+    }];
+}
+
+- (void)getMessagingMetrics:(CDVInvokedUrlCommand *)command {
+    [self.commandDelegate runInBackground:^{
+        CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+        [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+    }];
+}
+
+- (void)getStartupTrace:(CDVInvokedUrlCommand *)command {
+    [self.commandDelegate runInBackground:^{
+        CDVPluginResult *pluginResult = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+        [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+    }];
+}
+
 @end
 
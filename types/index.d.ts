@@ -11,6 +11,52 @@ export interface IChannelOptions {
     visibility?: -1 | 0 | 1
     usage?: number
     streamType?: number
+    group?: string
+}
+
+export interface IChannelGroupOptions {
+    id: string
+    name?: string
+    description?: string
+}
+
+export interface IChannelResult {
+    id: string
+    created: boolean
+    error?: string
+}
+
+export interface IChannel {
+    id: string
+    name: string
+    description?: string
+    importance: number
+    visibility: number
+    sound?: string
+    vibration: boolean
+    vibrationPattern?: number[]
+    light: boolean
+    lightColor: number
+    badge: boolean
+    group?: string
+}
+
+export interface IMessageBatchOptions {
+    maxBatchSize?: number
+    maxBatchBytes?: number
+}
+
+export interface ITopicReconciliation {
+    subscribed: string[]
+    unsubscribed: string[]
+    failed: { [topic: string]: string }
+}
+
+export interface IStartupTrace {
+    mode: "eager" | "staged"
+    trigger?: string
+    origin: "processStart" | "pluginInitialize"
+    stages: { [stage: string]: number }
 }
 
 export interface FirebasePlugin {
@@ -40,6 +86,11 @@ export interface FirebasePlugin {
         success: (value: object) => void,
         error: (err: string) => void
     ): void
+    onMessagesReceivedBatch(
+        success: (messages: object[]) => void,
+        error: (err: string) => void,
+        options?: IMessageBatchOptions
+    ): void
     onOpenSettings(
         success: () => void,
         error: (err: string) => void
@@ -76,6 +127,17 @@ export interface FirebasePlugin {
         success?: () => void,
         error?: (err: string) => void
     ): void
+
+    // Messaging - Topic sets (Android; the error callback is invoked on iOS)
+    setTopics(
+        topics: string[],
+        success?: (result: ITopicReconciliation) => void,
+        error?: (err: string | ITopicReconciliation) => void
+    ): void
+    listTopics(
+        success: (topics: string[]) => void,
+        error?: (err: string) => void
+    ): void
     isAutoInitEnabled(
         success: (enabled: boolean) => void,
         error?: (err: string) => void
@@ -112,8 +174,22 @@ export interface FirebasePlugin {
         success: () => void,
         error: (err: string) => void
     ): void
+    createChannels(
+        channels: IChannelOptions[],
+        success: (results: IChannelResult[]) => void,
+        error: (err: string) => void,
+        groups?: IChannelGroupOptions[]
+    ): void
     listChannels(
-        success: (list: { id: string; name: string }[]) => void,
+        success: (list: IChannel[]) => void,
+        error: (err: string) => void
+    ): void
+    getMessagingMetrics(
+        success: (metrics: object) => void,
+        error: (err: string) => void
+    ): void
+    getStartupTrace(
+        success: (trace: IStartupTrace) => void,
         error: (err: string) => void
     ): void
 
@@ -52,6 +52,13 @@ exports.onMessageReceived = function (success, error) {
   exec(success, error, "FirebasePlugin", "onMessageReceived", []);
 };
 
+exports.onMessagesReceivedBatch = function (success, error, options) {
+  exec(function (result) {
+    // Platforms without native batching deliver one message at a time
+    success(Array.isArray(result) ? result : [result]);
+  }, error, "FirebasePlugin", "onMessagesReceivedBatch", [options || {}]);
+};
+
 exports.onTokenRefresh = function (success, error) {
   exec(success, error, "FirebasePlugin", "onTokenRefresh", []);
 };
@@ -68,6 +75,14 @@ exports.unsubscribe = function (topic, success, error) {
   exec(success, error, "FirebasePlugin", "unsubscribe", [topic]);
 };
 
+exports.setTopics = function (topics, success, error) {
+  exec(success, error, "FirebasePlugin", "setTopics", [topics]);
+};
+
+exports.listTopics = function (success, error) {
+  exec(success, error, "FirebasePlugin", "listTopics", []);
+};
+
 exports.unregister = function (success, error) {
   exec(success, error, "FirebasePlugin", "unregister", []);
 };
@@ -122,6 +137,10 @@ exports.deleteChannel = function (channelID, success, error) {
     exec(success, error, "FirebasePlugin", "deleteChannel", [channelID]);
 };
 
+exports.createChannels = function (channels, success, error, groups) {
+    exec(success, error, "FirebasePlugin", "createChannels", [channels, groups || null]);
+};
+
 exports.listChannels = function (success, error) {
     exec(success, error, "FirebasePlugin", "listChannels", []);
 };
@@ -130,6 +149,14 @@ exports.clearAllNotifications = function (success, error) {
   exec(success, error, "FirebasePlugin", "clearAllNotifications", []);
 };
 
+exports.getMessagingMetrics = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getMessagingMetrics", []);
+};
+
+exports.getStartupTrace = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getStartupTrace", []);
+};
+
 // Installations
 exports.getId = function (success, error) {
     exec(success, error, "FirebasePlugin", "getId", []);